@@ -67,6 +67,7 @@ public class ProductManager {
     public static final String LAN_TAG_NL = "nl-NL";
 
     private Map<Product, List<Review>> products = new HashMap<>();
+    private final Map<Integer, RatingTotals> ratingTotals = new HashMap<>();
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     private final Lock writeLock = lock.writeLock();
     private final Lock readLock = lock.readLock();
@@ -139,14 +140,10 @@ public class ProductManager {
     private Product reviewProduct(Product product, Rating rating, String comments) {
         List<Review> reviews = products.get(product);
         products.remove(product, reviews);
+        RatingTotals totals = ratingTotals.computeIfAbsent(product.getId(), id -> new RatingTotals(reviews));
         reviews.add(new Review(rating, comments));
-        product = product.applyRating(
-                Rateable.convert(
-                        (int) Math.round(
-                                reviews.stream()
-                                        .mapToInt(r -> r.getRating().ordinal())
-                                        .average()
-                                        .orElse(0))));
+        totals.add(rating);
+        product = product.applyRating(totals.getAverage());
         products.put(product, reviews);
         return product;
     }
@@ -213,8 +210,8 @@ public class ProductManager {
                     = formatters.getOrDefault(languageTag, formatters.get(LAN_TAG_UK));
             StringBuilder txt = new StringBuilder();
             products.keySet().stream()
-                    .sorted(sorter)
                     .filter(filter)
+                    .sorted(sorter)
                     .forEach(product -> txt.append(formatter.formatProduct(product)).append('\n'));
             System.out.println(txt);
         } finally {
@@ -250,6 +247,7 @@ public class ProductManager {
             try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(tempFile, StandardOpenOption.DELETE_ON_CLOSE))) {
                 System.out.println("Read projects from " + tempFile.getFileName());
                 products = (HashMap) in.readObject();
+                ratingTotals.clear();
             }
         } catch (Exception ex) {
             logger.log(Level.SEVERE, "Error reading data " + ex.getMessage(), ex);
@@ -267,6 +265,7 @@ public class ProductManager {
                     .collect(Collectors.toMap(product -> product,
                             product -> loadReviews(product))
                     );
+            ratingTotals.clear();
         } catch (IOException ex) {
             logger.log(Level.SEVERE, "Error loading data " + ex.getMessage(), ex);
 
@@ -377,6 +376,29 @@ public class ProductManager {
         }
     }
 
+    /**
+     * Running sum and count of the review ratings of one product, so the
+     * average rating does not have to be recalculated over all reviews.
+     */
+    private static class RatingTotals {
+
+        private long sum;
+        private int count;
+
+        private RatingTotals(List<Review> reviews) {
+            reviews.forEach(review -> add(review.getRating()));
+        }
+
+        private void add(Rating rating) {
+            sum += rating.ordinal();
+            count++;
+        }
+
+        private Rating getAverage() {
+            return Rateable.convert((int) Math.round(count == 0 ? 0 : (double) sum / count));
+        }
+    }
+
     private static class ResourceFormatter {
 
         private Locale locale;
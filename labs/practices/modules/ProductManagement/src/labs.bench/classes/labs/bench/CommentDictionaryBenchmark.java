@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Map;
+import labs.pm.service.ProductManager;
+import labs.pm.service.ProductManagerException;
+
+/**
+ * {@code CommentDictionaryBenchmark} measures the heap that the comment
+ * dictionary of {@code ProductFileManager} saves when loading reviews with
+ * repetitive comments, for reviews kept as objects and in review columns.
+ * <br>
+ * The catalogue is written by {@link DataGenerator}, as
+ * {@code scripts/generate-data.sh} writes it: a few short comments that
+ * repeat, with a fraction of unique comments mixed in. It is loaded with
+ * {@code review.dictionary.size} off and with the given size. The heap is the
+ * heap of the whole loaded catalogue. Run with a heap large enough for the
+ * object layout, for example {@code -Xmx2g} for the default 1M reviews.
+ * <br>
+ * Usage:
+ * {@code CommentDictionaryBenchmark [reviews] [unique fraction] [dictionary size]}
+ *
+ * @author redhat
+ */
+public class CommentDictionaryBenchmark {
+
+    private static final int REVIEWS_PER_PRODUCT = 5;
+
+    // Keeps the catalogue reachable while the heap is measured.
+    private static long sink;
+
+    private static void pl(String text) {
+        System.out.println(text);
+    }
+
+    public static void main(String[] args) throws IOException, ProductManagerException {
+        int reviews = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        double unique = args.length > 1 ? Double.parseDouble(args[1]) : 0.01;
+        int dictionarySize = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path dataFolder = Files.createTempDirectory("dictionary");
+        new DataGenerator(101, reviews / REVIEWS_PER_PRODUCT, "fixed:" + REVIEWS_PER_PRODUCT, unique, 1, LocalDate.now(), threads)
+                .writeCsv(dataFolder);
+        pl("store\tdictionary\treviews\theap MiB\tbytes/review\tsaved MiB");
+        for (String store : new String[]{"objects", "columns"}) {
+            long without = measure(dataFolder, store, 0, reviews, threads, 0);
+            measure(dataFolder, store, dictionarySize, reviews, threads, without);
+        }
+        FileManagers.delete(dataFolder);
+    }
+
+    private static long measure(Path dataFolder, String store, int dictionarySize, int reviews, int threads, long without) throws ProductManagerException {
+        long before = usedHeap();
+        ProductManager pm = FileManagers.start(Map.of("data.folder", dataFolder.toString(),
+                "review.store", store,
+                "review.dictionary.size", String.valueOf(dictionarySize),
+                "data.load.threads", String.valueOf(threads)));
+        long used = usedHeap() - before;
+        sink += pm.hashCode();
+        pl(store + "\t" + (dictionarySize > 0 ? dictionarySize : "off") + "\t" + reviews
+                + "\t" + used / (1024 * 1024) + "\t" + used / reviews + "\t" + (without > 0 ? (without - used) / (1024 * 1024) : "-"));
+        return used;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
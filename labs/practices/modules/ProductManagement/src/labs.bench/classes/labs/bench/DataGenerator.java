@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.bench;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import labs.pm.data.Drink;
+import labs.pm.data.Food;
+import labs.pm.data.Product;
+import labs.pm.data.Rateable;
+import labs.pm.data.Rating;
+import labs.pm.data.Review;
+import labs.pm.service.ProductManagerException;
+
+/**
+ * {@code DataGenerator} writes a synthetic catalogue for performance tests:
+ * a product file and a review file per product in a data folder, or a single
+ * snapshot that {@code ProductFileManager} can map at startup.
+ * <br>
+ * The files use the file names and data formats of the default configuration
+ * of {@code labs.file}. When a run of {@code ProductFileManager} overrides
+ * them with {@code labs.file.*} system properties, pass the same properties
+ * to the generator.
+ * <br>
+ * Every product is generated from its own random generator, seeded with the
+ * seed and the product id, so the same settings always give the same data,
+ * whatever the number of writer threads. The average rating of a product
+ * matches its reviews. Most comments come from a short list of repeated
+ * comments, the rest are unique.
+ * <br>
+ * The generator is configured with system properties:
+ * <ul>
+ * <li>{@code generate.format} csv or snapshot, default csv</li>
+ * <li>{@code generate.folder} folder for the csv files, default the current
+ * folder</li>
+ * <li>{@code generate.file} snapshot file, default
+ * {@code products.snapshot} in the current folder</li>
+ * <li>{@code generate.products} number of products, default 100000</li>
+ * <li>{@code generate.first.id} id of the first product, default 101</li>
+ * <li>{@code generate.reviews} reviews per product: fixed:N, uniform:MIN-MAX
+ * or geometric:MEAN for many products with a few reviews and a few with
+ * many, default uniform:1-5</li>
+ * <li>{@code generate.unique} fraction of unique comments, default 0.01</li>
+ * <li>{@code generate.seed} random seed, default 1</li>
+ * <li>{@code generate.date} best before dates are spread over the year from
+ * this date, drinks get this date in the csv files, default today</li>
+ * <li>{@code generate.threads} number of writer threads, default the number
+ * of processors</li>
+ * </ul>
+ * A snapshot is written by {@code ProductFileManager} itself: the catalogue
+ * is written to csv files in a temporary folder, which a
+ * {@code ProductFileManager} started in snapshot mode loads and writes to the
+ * snapshot file. The heap must hold all products and reviews.
+ *
+ * @author redhat
+ */
+public class DataGenerator {
+
+    private static final String[] DRINKS = {"Tea", "Coffee", "Shake", "Lemonade", "Cola", "Juice"};
+    private static final String[] FOODS = {"Cake", "Cookie", "Icecream", "Muffin", "Bagel", "Sandwich"};
+    private static final String[] COMMENTS = {"Not Bad", "Ok", "Hot", "Good", "Fizzy", "Rather weak taste",
+        "Just add some lemon", "Could have been better", "Very small - expected more", "This is the best one I ever had"};
+    private static final int PRODUCTS_PER_TASK = 1000;
+    private static final int BEST_BEFORE_DAYS = 365;
+
+    private static final Logger logger = Logger.getLogger(DataGenerator.class.getName());
+
+    private final int firstId;
+    private final int products;
+    private final ToIntFunction<SplittableRandom> reviewCount;
+    private final double unique;
+    private final long seed;
+    private final LocalDate date;
+    private final int threads;
+    private final LongAdder reviews = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    public DataGenerator(int firstId, int products, String reviewCount, double unique, long seed, LocalDate date, int threads) {
+        this.firstId = firstId;
+        this.products = products;
+        this.reviewCount = parseReviewCount(reviewCount);
+        this.unique = unique;
+        this.seed = seed;
+        this.date = date;
+        this.threads = threads;
+    }
+
+    private static void pl(String text) {
+        System.out.println(text);
+    }
+
+    public static void main(String[] args) {
+        String format = System.getProperty("generate.format", "csv");
+        String date = System.getProperty("generate.date");
+        try {
+            DataGenerator generator = new DataGenerator(
+                    Integer.getInteger("generate.first.id", 101),
+                    Integer.getInteger("generate.products", 100_000),
+                    System.getProperty("generate.reviews", "uniform:1-5"),
+                    Double.parseDouble(System.getProperty("generate.unique", "0.01")),
+                    Long.getLong("generate.seed", 1),
+                    date != null ? LocalDate.parse(date) : LocalDate.now(),
+                    Integer.getInteger("generate.threads", Runtime.getRuntime().availableProcessors()));
+            long start = System.nanoTime();
+            if (format.equals("snapshot")) {
+                Path file = Path.of(System.getProperty("generate.file", "products.snapshot"));
+                generator.writeSnapshot(file);
+                pl("Wrote snapshot " + file);
+            } else {
+                Path folder = Path.of(System.getProperty("generate.folder", "."));
+                generator.writeCsv(folder);
+                pl("Wrote csv files to " + folder);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            pl(String.format("%d products, %d reviews, %d bytes in %.1f s (%.0f products/s)",
+                    generator.products, generator.reviews.sum(), generator.bytes.sum(), seconds, generator.products / seconds));
+        } catch (IOException | ProductManagerException | RuntimeException ex) {
+            logger.log(Level.SEVERE, "Error generating data " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Writes a product file and, when it has reviews, a review file for
+     * every product.
+     *
+     * @param folder the data folder
+     * @throws IOException if a file cannot be written
+     */
+    public void writeCsv(Path folder) throws IOException {
+        Files.createDirectories(folder);
+        String productFile = setting("product.data.file", "product{0}.csv");
+        String reviewsFile = setting("reviews.data.file", "reviews{0}.csv");
+        String productData = setting("product.data.format", "{0},{1},{2},{3},{4},{5}");
+        String reviewData = setting("review.data.format", "{0},{1}");
+        ThreadLocal<MessageFormat> productFormat = ThreadLocal.withInitial(() -> new MessageFormat(productData));
+        ThreadLocal<MessageFormat> reviewFormat = ThreadLocal.withInitial(() -> new MessageFormat(reviewData));
+        generate((product, productReviews) -> {
+            // Fields are passed as strings, so MessageFormat does not format numbers for the locale.
+            // A drink is best before today, which the loader ignores; generate.date keeps the files the same every day.
+            boolean food = product instanceof Food;
+            String line = productFormat.get().format(new Object[]{food ? "F" : "D",
+                String.valueOf(product.getId()), product.getName(), product.getPrice().toPlainString(),
+                String.valueOf(product.getRating().ordinal()), (food ? product.getBestBefore() : date).toString()});
+            // File names are formatted the same way as the loader formats them.
+            write(folder.resolve(MessageFormat.format(productFile, product.getId())), line + '\n');
+            if (!productReviews.isEmpty()) {
+                StringBuilder text = new StringBuilder();
+                for (Review review : productReviews) {
+                    text.append(reviewFormat.get().format(new Object[]{
+                        String.valueOf(review.getRating().ordinal()), review.getComments()})).append('\n');
+                }
+                write(folder.resolve(MessageFormat.format(reviewsFile, product.getId())), text.toString());
+            }
+        });
+    }
+
+    /**
+     * Writes all products and reviews to one snapshot file, with a
+     * {@code ProductFileManager} that loads them from csv files in a
+     * temporary folder.
+     *
+     * @param file the snapshot file
+     * @throws IOException if a file cannot be written
+     * @throws ProductManagerException if there is no
+     * {@code ProductFileManager} provider
+     */
+    public void writeSnapshot(Path file) throws IOException, ProductManagerException {
+        Path folder = Files.createTempDirectory("generate");
+        Path snapshotFolder = file.toAbsolutePath().getParent();
+        try {
+            writeCsv(folder);
+            Files.createDirectories(snapshotFolder);
+            // An existing snapshot newer than the data folder would be mapped instead of written.
+            Files.deleteIfExists(file);
+            FileManagers.start(Map.of("data.folder", folder.toString(),
+                    "temp.folder", snapshotFolder.toString(),
+                    "snapshot.file", file.getFileName().toString(),
+                    "startup.mode", "snapshot",
+                    "data.load.threads", String.valueOf(threads)));
+            if (Files.notExists(file)) {
+                throw new IOException("Snapshot " + file + " was not written");
+            }
+            bytes.reset();
+            bytes.add(Files.size(file));
+        } finally {
+            FileManagers.delete(folder);
+        }
+    }
+
+    private interface ProductWriter {
+
+        void write(Product product, List<Review> reviews) throws IOException;
+    }
+
+    /**
+     * Generates all products on the writer threads, in blocks of consecutive
+     * ids, and hands each product with its reviews to the writer.
+     */
+    private void generate(ProductWriter writer) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> tasks = new ArrayList<>();
+            for (int block = 0; block < products; block += PRODUCTS_PER_TASK) {
+                int first = firstId + block;
+                int last = firstId + Math.min(products, block + PRODUCTS_PER_TASK);
+                tasks.add(executor.submit(() -> {
+                    for (int id = first; id < last; id++) {
+                        SplittableRandom random = new SplittableRandom(seed ^ id * 0x9E3779B97F4A7C15L);
+                        List<Review> productReviews = generateReviews(id, random);
+                        writer.write(generateProduct(id, productReviews, random), productReviews);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating data", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Error generating data " + ex.getCause().getMessage(), ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Review> generateReviews(int id, SplittableRandom random) {
+        int count = reviewCount.applyAsInt(random);
+        List<Review> productReviews = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Rating rating = Rateable.convert(random.nextInt(1, 6));
+            String comments = random.nextDouble() < unique
+                    ? "Review " + i + " of product " + id
+                    : COMMENTS[random.nextInt(COMMENTS.length)];
+            productReviews.add(new Review(rating, comments));
+        }
+        reviews.add(count);
+        return productReviews;
+    }
+
+    private Product generateProduct(int id, List<Review> productReviews, SplittableRandom random) {
+        boolean food = random.nextBoolean();
+        String[] names = food ? FOODS : DRINKS;
+        String name = names[random.nextInt(names.length)] + " " + id;
+        BigDecimal price = BigDecimal.valueOf(random.nextInt(10, 10_000), 2);
+        // The same average as ProductFileManager calculates from the reviews.
+        int sum = productReviews.stream().mapToInt(review -> review.getRating().ordinal()).sum();
+        Rating rating = Rateable.convert((int) Math.round(productReviews.isEmpty() ? 0 : (double) sum / productReviews.size()));
+        if (food) {
+            return new Food(id, name, price, rating, date.plusDays(random.nextInt(BEST_BEFORE_DAYS)));
+        }
+        return new Drink(id, name, price, rating);
+    }
+
+    private void write(Path file, String text) throws IOException {
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        Files.write(file, content);
+        bytes.add(content.length);
+    }
+
+    private static String setting(String key, String value) {
+        return System.getProperty("labs.file." + key, value);
+    }
+
+    /**
+     * Parses the distribution of the number of reviews per product.
+     */
+    private static ToIntFunction<SplittableRandom> parseReviewCount(String distribution) {
+        String[] parts = distribution.split(":", 2);
+        switch (parts[0]) {
+            case "fixed": {
+                int count = Integer.parseInt(parts[1]);
+                return random -> count;
+            }
+            case "uniform": {
+                String[] bounds = parts[1].split("-", 2);
+                int min = Integer.parseInt(bounds[0]);
+                int max = Integer.parseInt(bounds[1]);
+                return random -> random.nextInt(min, max + 1);
+            }
+            case "geometric": {
+                double mean = Double.parseDouble(parts[1]);
+                double log = Math.log(mean / (mean + 1));
+                return random -> (int) Math.min(Integer.MAX_VALUE / 2, Math.floor(Math.log(1 - random.nextDouble()) / log));
+            }
+            default:
+                throw new IllegalArgumentException("Unknown review distribution " + distribution);
+        }
+    }
+}
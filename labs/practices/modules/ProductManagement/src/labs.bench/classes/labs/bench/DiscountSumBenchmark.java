@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.bench;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import static java.math.RoundingMode.HALF_UP;
+import java.time.LocalDate;
+import java.util.function.Supplier;
+import labs.pm.data.Food;
+import labs.pm.data.Product;
+import labs.pm.data.Rating;
+
+/**
+ * {@code DiscountSumBenchmark} compares ways to sum the discounts of 1M
+ * products, all of them food with a best before date of today:
+ * <ul>
+ * <li>the previous {@code getDiscounts}: a {@code BigDecimal} discount per
+ * product, summed as {@code double}</li>
+ * <li>{@code BigDecimal} discounts, summed exactly</li>
+ * <li>discounts in cents, summed as {@code long}</li>
+ * </ul>
+ * For each way it prints the time and the bytes allocated per sum.
+ *
+ * @author redhat
+ */
+public class DiscountSumBenchmark {
+
+    private static final int PRODUCTS = 1_000_000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 5;
+
+    private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static void pl(String text) {
+        System.out.println(text);
+    }
+
+    public static void main(String[] args) {
+        LocalDate today = LocalDate.now();
+        Product[] products = new Product[PRODUCTS];
+        // Prices as BigDecimal fields, the way Product kept them before.
+        BigDecimal[] prices = new BigDecimal[PRODUCTS];
+        for (int i = 0; i < PRODUCTS; i++) {
+            prices[i] = BigDecimal.valueOf(100 + i % 10_000, 2);
+            products[i] = new Food(i, "Food " + i, prices[i], Rating.NOT_RATED, today);
+        }
+        pl("sum\tms\tbytes\tresult");
+        run("BigDecimal as double", () -> {
+            double sum = 0;
+            for (int i = 0; i < PRODUCTS; i++) {
+                BigDecimal discount = products[i].getBestBefore().isEqual(LocalDate.now())
+                        ? prices[i].multiply(Product.DISCOUNT_RATE).setScale(2, HALF_UP)
+                        : BigDecimal.ZERO;
+                sum += discount.doubleValue();
+            }
+            return BigDecimal.valueOf(sum);
+        });
+        run("BigDecimal", () -> {
+            BigDecimal sum = BigDecimal.ZERO;
+            for (Product product : products) {
+                sum = sum.add(product.getDiscount());
+            }
+            return sum;
+        });
+        run("long cents", () -> {
+            long sum = 0;
+            for (Product product : products) {
+                sum += product.getDiscountCents();
+            }
+            return BigDecimal.valueOf(sum, 2);
+        });
+    }
+
+    private static void run(String name, Supplier<BigDecimal> sum) {
+        BigDecimal result = null;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            result = sum.get();
+        }
+        long thread = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            result = sum.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        pl(name + "\t" + elapsed / ROUNDS / 1_000_000 + "\t" + allocated / ROUNDS + "\t" + result.toPlainString());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import labs.pm.service.ProductManager;
+import labs.pm.service.ProductManagerException;
+
+/**
+ * {@code FileManagers} starts {@code ProductFileManager} through the
+ * {@link ProductManager} service with settings that override its
+ * {@code config.properties}, as {@code labs.file.*} system properties do.
+ *
+ * @author redhat
+ */
+final class FileManagers {
+
+    private FileManagers() {
+    }
+
+    /**
+     * Starts a new {@code ProductFileManager}. The settings only apply to
+     * this instance, the system properties are cleared again afterwards.
+     *
+     * @param settings configuration keys and their values, for example
+     * {@code startup.mode} and {@code snapshot}
+     * @return the started product manager
+     * @throws ProductManagerException if there is no
+     * {@code ProductFileManager} provider
+     */
+    static ProductManager start(Map<String, String> settings) throws ProductManagerException {
+        settings.forEach((key, value) -> System.setProperty("labs.file." + key, value));
+        try {
+            return ProductManager.getInstance("ProductFileManager");
+        } finally {
+            settings.keySet().forEach(key -> System.clearProperty("labs.file." + key));
+        }
+    }
+
+    /**
+     * Deletes a folder with all files and folders in it.
+     *
+     * @param folder the folder to delete
+     * @throws IOException if a file cannot be deleted
+     */
+    static void delete(Path folder) throws IOException {
+        if (Files.notExists(folder)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(folder)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+}
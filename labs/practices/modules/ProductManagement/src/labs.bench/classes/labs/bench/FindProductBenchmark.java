@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.bench;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import labs.pm.data.Rating;
+import labs.pm.service.ProductManager;
+import labs.pm.service.ProductManagerException;
+
+/**
+ * {@code FindProductBenchmark} measures the latency of
+ * {@link ProductManager#findProduct(int) findProduct} for catalogues of 1k up
+ * to 1M products.
+ * <br>
+ * With an id index the average lookup time should stay flat over all
+ * catalogue sizes.
+ *
+ * @author redhat
+ */
+public class FindProductBenchmark {
+
+    private static final int MIN_PRODUCT_ID = 1000;
+    private static final int[] CATALOGUE_SIZES = {1_000, 10_000, 100_000, 1_000_000};
+    private static final int LOOKUPS = 1_000_000;
+    private static final int WARMUP_ROUNDS = 3;
+
+    private static final Logger logger = Logger.getLogger(FindProductBenchmark.class.getName());
+
+    // Keeps the lookups from being optimised away.
+    private static long sink;
+
+    private static void pl(String text) {
+        System.out.println(text);
+    }
+
+    public static void main(String[] args) {
+        pl("products\tns/lookup");
+        for (int size : CATALOGUE_SIZES) {
+            try {
+                ProductManager pm = ProductManager.getInstance(System.getProperty("labs.pm.provider", "ProductFileManager"));
+                for (int i = 0; i < size; i++) {
+                    pm.createProduct(MIN_PRODUCT_ID + i, "Product " + i, BigDecimal.valueOf(1.99), Rating.NOT_RATED);
+                }
+                for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                    sink += lookup(pm, size);
+                }
+                long start = System.nanoTime();
+                sink += lookup(pm, size);
+                long elapsed = System.nanoTime() - start;
+                pl(size + "\t" + elapsed / LOOKUPS);
+            } catch (ProductManagerException ex) {
+                logger.log(Level.WARNING, ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private static int lookup(ProductManager pm, int size) throws ProductManagerException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int found = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            found += pm.findProduct(MIN_PRODUCT_ID + random.nextInt(size)).getId() & 1;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.bench;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import labs.pm.data.Rateable;
+import labs.pm.data.TimeSource;
+import labs.pm.service.ProductManager;
+import labs.pm.service.ProductManagerException;
+
+/**
+ * {@code ParallelQueryBenchmark} measures the two operations that
+ * {@code ProductFileManager} can run in parallel, a {@code findProducts} scan
+ * and a rebuild of the discount totals by {@code getDiscounts}, for several
+ * catalogue sizes and {@code parallel.threads} settings. One thread is the
+ * sequential stream.
+ * <br>
+ * The clock of {@link TimeSource} alternates between two days, so every
+ * {@code getDiscounts} call finds its totals outdated and rebuilds them.
+ * <br>
+ * The point where the parallel times drop below the sequential time is a
+ * good value for {@code parallel.threshold}.
+ * <br>
+ * Usage: {@code ParallelQueryBenchmark [max products] [max threads]}
+ *
+ * @author redhat
+ */
+public class ParallelQueryBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    // Keeps the results from being optimised away.
+    private static long sink;
+
+    private static void pl(String text) {
+        System.out.println(text);
+    }
+
+    public static void main(String[] args) throws IOException, ProductManagerException {
+        int maxProducts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Path dataFolder = Files.createTempDirectory("parallel");
+        LocalDateTime noon = LocalDate.now().atTime(12, 0);
+        Clock[] clocks = {clock(noon), clock(noon.plusDays(1))};
+        pl("products\tthreads\tscan us\trebuild us");
+        try {
+            for (int size = 1_000; size <= maxProducts; size *= 10) {
+                for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                    TimeSource.setClock(clocks[0]);
+                    ProductManager pm = FileManagers.start(Map.of("data.folder", dataFolder.toString(),
+                            "parallel.threads", String.valueOf(threads),
+                            "parallel.threshold", "0"));
+                    createProducts(pm, size, noon.toLocalDate());
+                    long scan = 0;
+                    long rebuild = 0;
+                    for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                        TimeSource.setClock(clocks[(round + 1) % 2]);
+                        long start = System.nanoTime();
+                        sink += pm.findProducts(product -> product.getPriceCents() < 200).size();
+                        long scanned = System.nanoTime();
+                        sink += pm.getDiscounts().size();
+                        long rebuilt = System.nanoTime();
+                        if (round >= WARMUP_ROUNDS) {
+                            scan += scanned - start;
+                            rebuild += rebuilt - scanned;
+                        }
+                    }
+                    pl(size + "\t" + threads + "\t" + scan / ROUNDS / 1_000 + "\t" + rebuild / ROUNDS / 1_000);
+                }
+            }
+        } finally {
+            TimeSource.setClock(Clock.systemDefaultZone());
+            FileManagers.delete(dataFolder);
+        }
+    }
+
+    private static Clock clock(LocalDateTime dateTime) {
+        ZoneId zone = ZoneId.systemDefault();
+        return Clock.fixed(dateTime.atZone(zone).toInstant(), zone);
+    }
+
+    private static void createProducts(ProductManager pm, int size, LocalDate today) {
+        for (int id = 0; id < size; id++) {
+            BigDecimal price = BigDecimal.valueOf(100 + id % 1000, 2);
+            if (id % 2 == 0) {
+                pm.createProduct(id, "Drink " + id, price, Rateable.convert(id % 6));
+            } else {
+                pm.createProduct(id, "Food " + id, price, Rateable.convert(id % 6), today.plusDays(id % 30));
+            }
+        }
+    }
+}
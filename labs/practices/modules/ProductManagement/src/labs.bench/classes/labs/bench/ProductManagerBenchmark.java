@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.bench;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import labs.pm.data.Product;
+import labs.pm.data.Rateable;
+import labs.pm.data.Rating;
+import labs.pm.service.ProductManager;
+import labs.pm.service.ProductManagerException;
+import labs.pm.service.ProductQuery;
+
+/**
+ * {@code ProductManagerBenchmark} measures the throughput of every
+ * {@link ProductManager} operation, for each provider found by the
+ * {@link ServiceLoader}, over a range of catalogue sizes and thread counts.
+ * <br>
+ * Each run uses a new provider instance filled with the given number of
+ * products. Every operation is warmed up and then measured for a fixed time
+ * per thread count. The runs are configured with system properties:
+ * <ul>
+ * <li>{@code bench.providers} provider class names, default all providers</li>
+ * <li>{@code bench.sizes} catalogue sizes, default 1000,10000,100000</li>
+ * <li>{@code bench.threads} thread counts, default 1,4,16</li>
+ * <li>{@code bench.operations} operations, default all</li>
+ * <li>{@code bench.seconds} seconds per warm up and per measurement, default 1</li>
+ * </ul>
+ *
+ * @author redhat
+ */
+public class ProductManagerBenchmark {
+
+    private static final int MIN_PRODUCT_ID = 1000;
+    private static final int REVIEWS_PER_PRODUCT = 2;
+    private static final BigDecimal PRICE_RANGE = BigDecimal.valueOf(10, 2);
+    private static final int PAGE_SIZE = 20;
+    private static final int PAGES = 5;
+    private static final Comparator<Product> BY_PRICE_DESCENDING = Comparator.comparing(Product::getPriceCents).reversed();
+
+    /**
+     * Sum of all operation results, so the operations are not optimised away.
+     */
+    private static final LongAdder sink = new LongAdder();
+
+    private static final Logger logger = Logger.getLogger(ProductManagerBenchmark.class.getName());
+
+    /**
+     * The benchmarked operations, each called with a random product of the
+     * catalogue.
+     */
+    private enum Operation {
+        FIND_PRODUCT {
+            @Override
+            int run(Catalogue catalogue, ThreadLocalRandom random) throws ProductManagerException {
+                return catalogue.pm.findProduct(catalogue.randomId(random)).getId();
+            }
+        },
+        FIND_REVIEWS {
+            @Override
+            int run(Catalogue catalogue, ThreadLocalRandom random) throws ProductManagerException {
+                return catalogue.pm.findReviews(catalogue.randomId(random)).size();
+            }
+        },
+        FIND_PRODUCTS {
+            @Override
+            int run(Catalogue catalogue, ThreadLocalRandom random) throws ProductManagerException {
+                Rating rating = Rateable.convert(random.nextInt(6));
+                return catalogue.pm.findProducts(product -> product.getRating() == rating).size();
+            }
+        },
+        QUERY_PRICE_RANGE {
+            @Override
+            int run(Catalogue catalogue, ThreadLocalRandom random) throws ProductManagerException {
+                BigDecimal from = BigDecimal.valueOf(100 + random.nextInt(990), 2);
+                return catalogue.pm.findProducts(new ProductQuery().priceFrom(from).priceBelow(from.add(PRICE_RANGE))).size();
+            }
+        },
+        LIST_PAGE {
+            @Override
+            int run(Catalogue catalogue, ThreadLocalRandom random) throws ProductManagerException {
+                int offset = PAGE_SIZE * random.nextInt(PAGES);
+                return catalogue.pm.listProducts(product -> true, BY_PRICE_DESCENDING, offset, PAGE_SIZE).size();
+            }
+        },
+        GET_DISCOUNTS {
+            @Override
+            int run(Catalogue catalogue, ThreadLocalRandom random) throws ProductManagerException {
+                return catalogue.pm.getDiscounts().size();
+            }
+        },
+        REVIEW_PRODUCT {
+            @Override
+            int run(Catalogue catalogue, ThreadLocalRandom random) {
+                return catalogue.pm.reviewProduct(catalogue.randomId(random), Rateable.convert(1 + random.nextInt(5)), "Benchmark review").getId();
+            }
+        },
+        CREATE_PRODUCT {
+            @Override
+            int run(Catalogue catalogue, ThreadLocalRandom random) {
+                return catalogue.createProduct(catalogue.nextId.getAndIncrement()).getId();
+            }
+        };
+
+        abstract int run(Catalogue catalogue, ThreadLocalRandom random) throws ProductManagerException;
+    }
+
+    /**
+     * A provider instance with products {@code MIN_PRODUCT_ID} up to
+     * {@code MIN_PRODUCT_ID + size}.
+     */
+    private static class Catalogue {
+
+        private final ProductManager pm;
+        private final int size;
+        private final AtomicInteger nextId;
+
+        private Catalogue(ProductManager pm, int size) {
+            this.pm = pm;
+            this.size = size;
+            nextId = new AtomicInteger(MIN_PRODUCT_ID + size);
+            for (int id = MIN_PRODUCT_ID; id < MIN_PRODUCT_ID + size; id++) {
+                createProduct(id);
+                for (int i = 0; i < REVIEWS_PER_PRODUCT; i++) {
+                    pm.reviewProduct(id, Rateable.convert(1 + (id + i) % 5), "Review " + i);
+                }
+            }
+        }
+
+        private Product createProduct(int id) {
+            BigDecimal price = BigDecimal.valueOf(100 + id % 1000, 2);
+            if (id % 2 == 0) {
+                return pm.createProduct(id, "Drink " + id, price, Rating.NOT_RATED);
+            }
+            return pm.createProduct(id, "Food " + id, price, Rating.NOT_RATED, LocalDate.now().plusDays(id % 30));
+        }
+
+        private int randomId(ThreadLocalRandom random) {
+            return MIN_PRODUCT_ID + random.nextInt(size);
+        }
+    }
+
+    private static void pl(String text) {
+        System.out.println(text);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        List<String> providers = stringList("bench.providers", "");
+        int[] sizes = intList("bench.sizes", "1000,10000,100000");
+        int[] threadCounts = intList("bench.threads", "1,4,16");
+        List<Operation> operations = stringList("bench.operations", "")
+                .stream()
+                .map(Operation::valueOf)
+                .collect(Collectors.toList());
+        if (operations.isEmpty()) {
+            operations = Arrays.asList(Operation.values());
+        }
+        int seconds = Integer.getInteger("bench.seconds", 1);
+        pl("provider\tproducts\toperation\tthreads\tops/s\tns/op");
+        for (ServiceLoader.Provider<ProductManager> provider : ServiceLoader.load(ProductManager.class).stream().collect(Collectors.toList())) {
+            if (!providers.isEmpty() && !providers.contains(provider.type().getSimpleName()) && !providers.contains(provider.type().getName())) {
+                continue;
+            }
+            for (int size : sizes) {
+                Catalogue catalogue = new Catalogue(provider.get(), size);
+                for (Operation operation : operations) {
+                    for (int threads : threadCounts) {
+                        run(catalogue, operation, threads, seconds);
+                        long ops = run(catalogue, operation, threads, seconds);
+                        pl(provider.type().getSimpleName() + "\t" + size + "\t" + operation + "\t" + threads
+                                + "\t" + ops / seconds
+                                + "\t" + (ops == 0 ? "-" : TimeUnit.SECONDS.toNanos(seconds) * threads / ops));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs an operation on a number of threads for a fixed time.
+     *
+     * @return the number of completed operations
+     */
+    private static long run(Catalogue catalogue, Operation operation, int threads, int seconds) throws InterruptedException {
+        LongAdder completed = new LongAdder();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                long result = 0;
+                try {
+                    while (System.nanoTime() < end) {
+                        result += operation.run(catalogue, random);
+                        count++;
+                    }
+                } catch (ProductManagerException | RuntimeException ex) {
+                    logger.log(Level.WARNING, operation + " failed " + ex.getMessage(), ex);
+                }
+                completed.add(count);
+                sink.add(result);
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+        return completed.sum();
+    }
+
+    private static List<String> stringList(String property, String defaultValue) {
+        return Arrays.stream(System.getProperty(property, defaultValue).split(","))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private static int[] intList(String property, String defaultValue) {
+        return stringList(property, defaultValue)
+                .stream()
+                .mapToInt(Integer::parseInt)
+                .toArray();
+    }
+}
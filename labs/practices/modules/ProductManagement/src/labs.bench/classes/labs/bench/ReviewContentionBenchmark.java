@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.bench;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import labs.pm.data.Rateable;
+import labs.pm.data.Rating;
+import labs.pm.service.ProductManager;
+import labs.pm.service.ProductManagerException;
+
+/**
+ * {@code ReviewContentionBenchmark} measures the throughput of
+ * {@link ProductManager#reviewProduct(int, Rating, String) reviewProduct} with
+ * 1 to 64 writer threads that review random products of one catalogue.
+ * <br>
+ * Usage: {@code ReviewContentionBenchmark [products] [seconds per run]}
+ *
+ * @author redhat
+ */
+public class ReviewContentionBenchmark {
+
+    private static final int MIN_PRODUCT_ID = 1000;
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    private static void pl(String text) {
+        System.out.println(text);
+    }
+
+    public static void main(String[] args) throws InterruptedException, ProductManagerException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        ProductManager pm = ProductManager.getInstance(System.getProperty("labs.pm.provider", "ProductFileManager"));
+        for (int i = 0; i < size; i++) {
+            pm.createProduct(MIN_PRODUCT_ID + i, "Product " + i, BigDecimal.valueOf(1.99), Rating.NOT_RATED);
+        }
+        pl("threads\treviews/s");
+        for (int threads : THREADS) {
+            LongAdder reviews = new LongAdder();
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            for (int t = 0; t < threads; t++) {
+                executor.execute(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < end) {
+                        pm.reviewProduct(MIN_PRODUCT_ID + random.nextInt(size), Rateable.convert(1 + random.nextInt(5)), "Benchmark review");
+                        reviews.increment();
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+            pl(threads + "\t" + reviews.sum() / seconds);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.bench;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import labs.pm.data.Rating;
+import labs.pm.service.ProductManager;
+import labs.pm.service.ProductManagerException;
+
+/**
+ * {@code ReviewLogBenchmark} measures how many reviews per second
+ * {@code ProductFileManager} accepts with each {@code review.log.sync}
+ * policy, for a number of writer threads. Each writer thread reviews its own
+ * product, so the threads only share the review log.
+ * <br>
+ * A run ends after the given seconds, or when the writers reach the maximum
+ * number of reviews. Reviews stay in memory until the end of the benchmark,
+ * the maximum bounds the heap they take.
+ * <br>
+ * Usage:
+ * {@code ReviewLogBenchmark [seconds per run] [group interval ms] [max reviews per run]}
+ *
+ * @author redhat
+ */
+public class ReviewLogBenchmark {
+
+    private static final String[] SYNCS = {"off", "always", "group", "os"};
+    private static final int[] THREADS = {1, 4, 16, 64};
+
+    private static void pl(String text) {
+        System.out.println(text);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ProductManagerException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        long interval = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        int maxReviews = args.length > 2 ? Integer.parseInt(args[2]) : 500_000;
+        Path folder = Files.createTempDirectory("reviewlog");
+        pl("sync\tthreads\treviews/s");
+        for (String sync : SYNCS) {
+            for (int threads : THREADS) {
+                Path runFolder = folder.resolve(sync + "-" + threads);
+                Path dataFolder = Files.createDirectories(runFolder.resolve("data"));
+                ProductManager pm = FileManagers.start(Map.of("data.folder", dataFolder.toString(),
+                        "temp.folder", runFolder.toString(),
+                        "review.log.sync", sync,
+                        "review.log.interval", String.valueOf(interval)));
+                for (int id = 0; id < threads; id++) {
+                    pm.createProduct(id, "Product " + id, BigDecimal.valueOf(1.99), Rating.NOT_RATED);
+                }
+                LongAdder reviews = new LongAdder();
+                int perThread = Math.max(1, maxReviews / threads);
+                long start = System.nanoTime();
+                long end = start + TimeUnit.SECONDS.toNanos(seconds);
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                for (int t = 0; t < threads; t++) {
+                    int id = t;
+                    executor.execute(() -> {
+                        String comments = "Yet another review from client " + id;
+                        for (int i = 0; i < perThread && System.nanoTime() < end; i++) {
+                            pm.reviewProduct(id, Rating.FOUR_STAR, comments);
+                            reviews.increment();
+                        }
+                    });
+                }
+                executor.shutdown();
+                executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+                long elapsed = System.nanoTime() - start;
+                pl(sync + "\t" + threads + "\t" + reviews.sum() * 1_000_000_000L / elapsed);
+            }
+        }
+        FileManagers.delete(folder);
+    }
+}
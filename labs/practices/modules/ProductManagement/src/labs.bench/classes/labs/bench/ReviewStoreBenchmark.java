@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Map;
+import labs.pm.data.Review;
+import labs.pm.service.ProductManager;
+import labs.pm.service.ProductManagerException;
+
+/**
+ * {@code ReviewStoreBenchmark} compares the heap used by the reviews of a
+ * catalogue that {@code ProductFileManager} loads with each
+ * {@code review.store}: lists of {@code Review} objects, or review columns,
+ * and the time to read all reviews back with {@code findReviews}.
+ * <br>
+ * The heap of the reviews is the heap after loading the catalogue, less the
+ * heap after loading the same number of products without reviews. Run with
+ * a heap large enough for the object layout, for example {@code -Xmx2g} for
+ * the default 1M reviews.
+ * <br>
+ * Usage: {@code ReviewStoreBenchmark [reviews] [reviews per product]}
+ *
+ * @author redhat
+ */
+public class ReviewStoreBenchmark {
+
+    private static final int FIRST_ID = 101;
+    private static final String[] STORES = {"objects", "columns"};
+
+    // Keeps the reads from being optimised away.
+    private static long sink;
+
+    private static void pl(String text) {
+        System.out.println(text);
+    }
+
+    public static void main(String[] args) throws IOException, ProductManagerException {
+        int reviews = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int perProduct = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int products = reviews / perProduct;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path folder = Files.createTempDirectory("reviewstore");
+        Path productsOnly = folder.resolve("products");
+        Path catalogue = folder.resolve("catalogue");
+        new DataGenerator(FIRST_ID, products, "fixed:0", 0, 1, LocalDate.now(), threads).writeCsv(productsOnly);
+        new DataGenerator(FIRST_ID, products, "fixed:" + perProduct, 0.01, 1, LocalDate.now(), threads).writeCsv(catalogue);
+        pl("store\treviews\theap MiB\tbytes/review\tread ms");
+        for (String store : STORES) {
+            long withoutReviews = loadedHeap(productsOnly, store, threads);
+            measure(catalogue, store, threads, products, (long) products * perProduct, withoutReviews);
+        }
+        FileManagers.delete(folder);
+    }
+
+    private static long loadedHeap(Path dataFolder, String store, int threads) throws ProductManagerException {
+        long before = usedHeap();
+        ProductManager pm = start(dataFolder, store, threads);
+        long used = usedHeap() - before;
+        sink += pm.hashCode();
+        return used;
+    }
+
+    private static void measure(Path dataFolder, String store, int threads, int products, long reviews, long withoutReviews) throws ProductManagerException {
+        long before = usedHeap();
+        ProductManager pm = start(dataFolder, store, threads);
+        long used = usedHeap() - before - withoutReviews;
+        long start = System.nanoTime();
+        long length = 0;
+        for (int id = FIRST_ID; id < FIRST_ID + products; id++) {
+            for (Review review : pm.findReviews(id)) {
+                length += review.getComments().length() + review.getRating().ordinal();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += length;
+        pl(store + "\t" + reviews + "\t" + used / (1024 * 1024) + "\t" + used / reviews + "\t" + elapsed / 1_000_000);
+    }
+
+    private static ProductManager start(Path dataFolder, String store, int threads) throws ProductManagerException {
+        return FileManagers.start(Map.of("data.folder", dataFolder.toString(),
+                "review.store", store,
+                "data.load.threads", String.valueOf(threads)));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
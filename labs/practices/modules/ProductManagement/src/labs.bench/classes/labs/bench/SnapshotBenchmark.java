@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.bench;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import labs.pm.data.Product;
+import labs.pm.data.Review;
+import labs.pm.service.ProductManager;
+import labs.pm.service.ProductManagerException;
+
+/**
+ * {@code SnapshotBenchmark} compares the binary product snapshot of
+ * {@code ProductFileManager} with Java serialization of the products map, as
+ * used by {@code ProductFileManager.dumpData}, and with loading the csv files.
+ * <br>
+ * The snapshot is measured through the startup modes of
+ * {@code ProductFileManager}. Its write time is the time of a snapshot
+ * startup without a snapshot, which loads the csv files and writes one, less
+ * the time of a csv startup. Its read time is the time of a snapshot startup
+ * that maps the snapshot, plus reading all products and reviews from it.
+ * <br>
+ * Usage: {@code SnapshotBenchmark [products] [reviews per product]}
+ *
+ * @author redhat
+ */
+public class SnapshotBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private static void pl(String text) {
+        System.out.println(text);
+    }
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException, ProductManagerException {
+        int productCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int reviewCount = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Path folder = Files.createTempDirectory("snapshot");
+        Path dataFolder = folder.resolve("data");
+        Path serialFile = folder.resolve("products.ser");
+        Path binaryFile = folder.resolve("products.snapshot");
+        new DataGenerator(101, productCount, "fixed:" + reviewCount, 0.01, 1, LocalDate.now(),
+                Runtime.getRuntime().availableProcessors()).writeCsv(dataFolder);
+        Map<String, String> csv = Map.of("data.folder", dataFolder.toString(), "temp.folder", folder.toString(),
+                "startup.mode", "csv");
+        Map<String, String> snapshot = Map.of("data.folder", dataFolder.toString(), "temp.folder", folder.toString(),
+                "startup.mode", "snapshot", "snapshot.file", binaryFile.getFileName().toString());
+        HashMap<Product, List<Review>> products = readAll(FileManagers.start(csv));
+        pl("format\twrite ms\tread ms\tbytes");
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(serialFile))) {
+                out.writeObject(products);
+            }
+            long written = System.nanoTime();
+            try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(serialFile))) {
+                in.readObject();
+            }
+            long read = System.nanoTime();
+            pl("serial\t" + (written - start) / 1_000_000 + "\t" + (read - written) / 1_000_000 + "\t" + Files.size(serialFile));
+
+            start = System.nanoTime();
+            FileManagers.start(csv);
+            long csvLoad = System.nanoTime() - start;
+            pl("csv\t-\t" + csvLoad / 1_000_000 + "\t-");
+
+            Files.deleteIfExists(binaryFile);
+            start = System.nanoTime();
+            FileManagers.start(snapshot);
+            written = System.nanoTime();
+            readAll(FileManagers.start(snapshot));
+            read = System.nanoTime();
+            pl("binary\t" + Math.max(0, written - start - csvLoad) / 1_000_000 + "\t" + (read - written) / 1_000_000 + "\t" + Files.size(binaryFile));
+        }
+        FileManagers.delete(folder);
+    }
+
+    /**
+     * Reads all products and their reviews from a product manager.
+     */
+    private static HashMap<Product, List<Review>> readAll(ProductManager pm) throws ProductManagerException {
+        HashMap<Product, List<Review>> products = new HashMap<>();
+        for (Product product : pm.findProducts(product -> true)) {
+            products.put(product, pm.findReviews(product.getId()));
+        }
+        return products;
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import labs.pm.data.Product;
+import labs.pm.data.Rateable;
+import labs.pm.data.Rating;
+import labs.pm.data.Review;
+import labs.pm.service.ProductManager;
+import labs.pm.service.ProductManagerException;
+
+/**
+ * {@code LoadGenerator} drives a {@link ProductManager} with the clients of
+ * the {@code Shop} simulation: each request reads a product, reviews a
+ * product, formats a product report in a random locale or calculates the
+ * discounts.
+ * <br>
+ * The load is configured with system properties:
+ * <ul>
+ * <li>{@code load.threads} number of client threads, default 3</li>
+ * <li>{@code load.seconds} duration of the run, default 10</li>
+ * <li>{@code load.rate} target requests per second for all threads together,
+ * 0 for as fast as possible, default 0</li>
+ * <li>{@code load.mix} relative weight per operation, default
+ * read=60,write=20,report=15,discounts=5</li>
+ * <li>{@code load.products} number of products, missing products are
+ * created, default the products of the provider</li>
+ * <li>{@code load.skew} Zipf exponent of the product popularity, 0 for
+ * uniform, default 1</li>
+ * <li>{@code labs.pm.provider} the {@code ProductManager} provider, default
+ * ProductFileManager</li>
+ * </ul>
+ * With a target rate every thread sends its requests on a fixed schedule and
+ * latency is measured from the scheduled time, so a slow response also
+ * counts for the requests that had to wait for it.
+ *
+ * @author redhat
+ */
+public class LoadGenerator {
+
+    private static final int MIN_PRODUCT_ID = 101;
+    private static final String[] LANGUAGE_TAGS = {
+        ResourceFormatter.LAN_TAG_UK, ResourceFormatter.LAN_TAG_US, ResourceFormatter.LAN_TAG_ESUS,
+        ResourceFormatter.LAN_TAG_FR, ResourceFormatter.LAN_TAG_FRCA, ResourceFormatter.LAN_TAG_RU,
+        ResourceFormatter.LAN_TAG_CN, ResourceFormatter.LAN_TAG_NL};
+
+    private static final Logger logger = Logger.getLogger(LoadGenerator.class.getName());
+
+    private enum Operation {
+        READ {
+            @Override
+            int run(ProductManager pm, int id, ThreadLocalRandom random) throws ProductManagerException {
+                return pm.findProduct(id).getId();
+            }
+        },
+        WRITE {
+            @Override
+            int run(ProductManager pm, int id, ThreadLocalRandom random) throws ProductManagerException {
+                Product product = pm.reviewProduct(id, Rateable.convert(1 + random.nextInt(5)), "Yet another review from " + Thread.currentThread().getName());
+                if (product == null) {
+                    throw new ProductManagerException("Product " + id + " not reviewed");
+                }
+                return product.getId();
+            }
+        },
+        REPORT {
+            @Override
+            int run(ProductManager pm, int id, ThreadLocalRandom random) throws ProductManagerException {
+                ResourceFormatter formatter = ResourceFormatter.getResourceFormatter(LANGUAGE_TAGS[random.nextInt(LANGUAGE_TAGS.length)]);
+                Product product = pm.findProduct(id);
+                List<Review> reviews = pm.findReviews(id);
+                try {
+                    formatter.formatProductReport(product, reviews, Writer.nullWriter());
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                return reviews.size();
+            }
+        },
+        DISCOUNTS {
+            @Override
+            int run(ProductManager pm, int id, ThreadLocalRandom random) throws ProductManagerException {
+                return pm.getDiscounts().size();
+            }
+        };
+
+        abstract int run(ProductManager pm, int id, ThreadLocalRandom random) throws ProductManagerException;
+    }
+
+    /**
+     * Results of one client thread.
+     */
+    private static class ClientResult {
+
+        private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+        private final Map<Operation, Long> errors = new EnumMap<>(Operation.class);
+        private long checksum;
+
+        private ClientResult() {
+            for (Operation operation : Operation.values()) {
+                latencies.put(operation, new LatencyHistogram());
+                errors.put(operation, 0L);
+            }
+        }
+
+        private void add(ClientResult other) {
+            for (Operation operation : Operation.values()) {
+                latencies.get(operation).add(other.latencies.get(operation));
+                errors.merge(operation, other.errors.get(operation), Long::sum);
+            }
+            checksum += other.checksum;
+        }
+    }
+
+    private static void pl(String text) {
+        System.out.println(text);
+    }
+
+    public static void main(String[] args) {
+        int threads = Integer.getInteger("load.threads", 3);
+        int seconds = Integer.getInteger("load.seconds", 10);
+        int rate = Integer.getInteger("load.rate", 0);
+        double skew = Double.parseDouble(System.getProperty("load.skew", "1"));
+        Integer products = Integer.getInteger("load.products");
+        Operation[] mix = parseMix(System.getProperty("load.mix", "read=60,write=20,report=15,discounts=5"));
+        try {
+            ProductManager pm = ProductManager.getInstance(System.getProperty("labs.pm.provider", "ProductFileManager"));
+            int[] ids = productIds(pm, products);
+            ZipfDistribution popularity = new ZipfDistribution(ids.length, skew);
+            long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * threads / rate : 0;
+            pl("threads " + threads + ", seconds " + seconds + ", rate " + (rate > 0 ? rate : "max")
+                    + ", products " + ids.length + ", skew " + skew + ", mix " + System.getProperty("load.mix", "read=60,write=20,report=15,discounts=5"));
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(seconds);
+            List<Future<ClientResult>> clients = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long first = start + (interval * t) / threads;
+                clients.add(executor.submit(() -> runClient(pm, ids, popularity, mix, first, interval, end)));
+            }
+            executor.shutdown();
+            ClientResult total = new ClientResult();
+            for (Future<ClientResult> client : clients) {
+                total.add(client.get());
+            }
+            long elapsed = System.nanoTime() - start;
+            printResult(total, elapsed);
+            new TreeMap<>(pm.getStatistics()).forEach((name, value) -> pl(name + "\t" + value));
+        } catch (ProductManagerException ex) {
+            logger.log(Level.WARNING, ex.getMessage(), ex);
+        } catch (Exception ex) {
+            logger.log(Level.SEVERE, "Error running clients", ex);
+        }
+    }
+
+    private static ClientResult runClient(ProductManager pm, int[] ids, ZipfDistribution popularity, Operation[] mix, long first, long interval, long end) {
+        ClientResult result = new ClientResult();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long next = first;
+        while (true) {
+            long intended;
+            if (interval > 0) {
+                intended = next;
+                next += interval;
+                if (intended >= end) {
+                    break;
+                }
+                long wait;
+                while ((wait = intended - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            } else {
+                intended = System.nanoTime();
+                if (intended >= end) {
+                    break;
+                }
+            }
+            Operation operation = mix[random.nextInt(mix.length)];
+            int id = ids[popularity.next(random)];
+            try {
+                result.checksum += operation.run(pm, id, random);
+            } catch (ProductManagerException ex) {
+                result.errors.merge(operation, 1L, Long::sum);
+            }
+            result.latencies.get(operation).record(System.nanoTime() - intended);
+        }
+        return result;
+    }
+
+    private static void printResult(ClientResult total, long elapsed) {
+        double seconds = elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+        pl("operation\trequests\terrors\treq/s\tp50 us\tp99 us\tp999 us\tmax us");
+        LatencyHistogram all = new LatencyHistogram();
+        long errors = 0;
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram latency = total.latencies.get(operation);
+            all.add(latency);
+            errors += total.errors.get(operation);
+            if (latency.getCount() > 0) {
+                pl(formatLine(operation.toString(), latency, total.errors.get(operation), seconds));
+            }
+        }
+        pl(formatLine("TOTAL", all, errors, seconds));
+    }
+
+    private static String formatLine(String name, LatencyHistogram latency, long errors, double seconds) {
+        return name
+                + "\t" + latency.getCount()
+                + "\t" + errors
+                + "\t" + Math.round(latency.getCount() / seconds)
+                + "\t" + micros(latency.getPercentile(0.5))
+                + "\t" + micros(latency.getPercentile(0.99))
+                + "\t" + micros(latency.getPercentile(0.999))
+                + "\t" + micros(latency.getMax());
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.1f", nanos / 1000.0);
+    }
+
+    /**
+     * Expands the operation weights into a table, so picking a random entry
+     * picks an operation with the right probability.
+     */
+    private static Operation[] parseMix(String mix) {
+        List<Operation> table = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] weight = entry.split("=");
+            Operation operation = Operation.valueOf(weight[0].trim().toUpperCase());
+            table.addAll(Collections.nCopies(Integer.parseInt(weight[1].trim()), operation));
+        }
+        if (table.isEmpty()) {
+            throw new IllegalArgumentException("Empty operation mix " + mix);
+        }
+        return table.toArray(new Operation[table.size()]);
+    }
+
+    /**
+     * Lists the product ids to use, creating products when the provider has
+     * fewer than requested. The ids are shuffled with a fixed seed, so the
+     * most popular products are spread over the catalogue but are the same
+     * in every run.
+     */
+    private static int[] productIds(ProductManager pm, Integer products) throws ProductManagerException {
+        List<Integer> ids = pm.findProducts(product -> true)
+                .stream()
+                .map(Product::getId)
+                .sorted()
+                .collect(Collectors.toList());
+        int count = products == null ? ids.size() : products;
+        int id = ids.isEmpty() ? MIN_PRODUCT_ID : ids.get(ids.size() - 1) + 1;
+        while (ids.size() < count) {
+            pm.createProduct(id, "Product " + id, BigDecimal.valueOf(100 + id % 1000, 2), Rating.NOT_RATED);
+            ids.add(id++);
+        }
+        List<Integer> used = new ArrayList<>(ids.subList(0, count));
+        Collections.shuffle(used, new Random(count));
+        if (used.isEmpty()) {
+            throw new ProductManagerException("No products to load");
+        }
+        return used.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Zipf distribution over the ranks 0 to n - 1: rank k is picked with a
+     * probability proportional to 1 / (k + 1)^skew.
+     */
+    private static class ZipfDistribution {
+
+        private final double[] cumulative;
+
+        private ZipfDistribution(int n, double skew) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) {
+                sum += 1 / Math.pow(k + 1, skew);
+                cumulative[k] = sum;
+            }
+            for (int k = 0; k < n; k++) {
+                cumulative[k] /= sum;
+            }
+        }
+
+        private int next(ThreadLocalRandom random) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+            return Math.min(rank < 0 ? -rank - 1 : rank, cumulative.length - 1);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.client;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@code MessageTemplate} is a {@link MessageFormat} pattern that is parsed
+ * once and can then be shared by any number of threads.
+ * <br>
+ * Patterns that only use plain arguments such as <code>{0}</code> are split
+ * into literal text and argument indexes, and formatting just appends these
+ * to the output. Quotes are handled the same way as by
+ * {@code MessageFormat}. Patterns with format types, for example
+ * <code>{0,number}</code>, are formatted by a {@code MessageFormat} that is
+ * used by one thread at a time.
+ *
+ * @author redhat
+ */
+class MessageTemplate {
+
+    private final String[] literals;
+    private final int[] arguments;
+    private final MessageFormat format;
+
+    private MessageTemplate(String[] literals, int[] arguments, MessageFormat format) {
+        this.literals = literals;
+        this.arguments = arguments;
+        this.format = format;
+    }
+
+    /**
+     * Parses a {@code MessageFormat} pattern.
+     *
+     * @param pattern the pattern
+     * @param locale the locale used for patterns with format types
+     * @return the parsed template
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    static MessageTemplate compile(String pattern, Locale locale) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> arguments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+                    literal.append(c);
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == '{' && !quoted) {
+                int end = pattern.indexOf('}', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unmatched braces in the pattern.");
+                }
+                int argument = parseArgument(pattern, i + 1, end);
+                if (argument < 0) {
+                    return new MessageTemplate(null, null, new MessageFormat(pattern, locale));
+                }
+                literals.add(literal.toString());
+                arguments.add(argument);
+                literal.setLength(0);
+                i = end;
+            } else {
+                literal.append(c);
+            }
+        }
+        literals.add(literal.toString());
+        return new MessageTemplate(
+                literals.toArray(new String[literals.size()]),
+                arguments.stream().mapToInt(Integer::intValue).toArray(),
+                null);
+    }
+
+    private static int parseArgument(String pattern, int start, int end) {
+        if (start == end || end - start > 9) {
+            return -1;
+        }
+        int argument = 0;
+        for (int i = start; i < end; i++) {
+            char c = pattern.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            argument = argument * 10 + c - '0';
+        }
+        return argument;
+    }
+
+    /**
+     * Formats the arguments into a {@code StringBuilder}.
+     *
+     * @param out the builder to append to
+     * @param args the arguments, referenced by index from the pattern
+     * @return the builder
+     */
+    StringBuilder format(StringBuilder out, CharSequence... args) {
+        try {
+            formatTo(out, args);
+        } catch (IOException ex) {
+            // StringBuilder does not throw IOException
+            throw new AssertionError(ex);
+        }
+        return out;
+    }
+
+    /**
+     * Formats the arguments into an {@code Appendable}.
+     * <br>
+     * Arguments that are missing are written as <code>{n}</code> and
+     * {@code null} arguments as {@code "null"}, like {@code MessageFormat}
+     * does.
+     *
+     * @param out the output to append to
+     * @param args the arguments, referenced by index from the pattern
+     * @throws IOException if the output cannot be written
+     */
+    void formatTo(Appendable out, CharSequence... args) throws IOException {
+        if (format != null) {
+            StringBuffer buffer = new StringBuffer();
+            synchronized (format) {
+                format.format(args, buffer, null);
+            }
+            out.append(buffer);
+            return;
+        }
+        for (int i = 0; i < arguments.length; i++) {
+            out.append(literals[i]);
+            int argument = arguments[i];
+            if (argument < args.length) {
+                out.append(args[argument]);
+            } else {
+                out.append('{').append(Integer.toString(argument)).append('}');
+            }
+        }
+        out.append(literals[arguments.length]);
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.client;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static labs.client.ResourceFormatter.LAN_TAG_UK;
+
+import labs.pm.data.Product;
+import labs.pm.data.Review;
+import labs.pm.service.ProductManager;
+import labs.pm.service.ProductManagerException;
+
+/**
+ * {@code ReportJob} writes the report of every product in every supported
+ * locale, as the nightly batch does.
+ * <br>
+ * The products are handed to a fixed pool of writer threads through a
+ * bounded queue. When the queue is full the submitting thread writes the next
+ * product itself, so the job never runs far ahead of the writers. The reviews
+ * of a product are read once for all locales, the locale folders are created
+ * once before the first report, and every writer thread streams its reports
+ * through its own reused encoder and buffer, with one channel write each time
+ * the buffer is full. A report that fits in the buffer takes a single write.
+ * <br>
+ * The job is configured with system properties:
+ * <ul>
+ * <li>{@code report.threads} number of writer threads, default the number of
+ * processors</li>
+ * <li>{@code report.folder} folder for the reports, with a sub folder per
+ * locale, default the folder of the {@code report} resource</li>
+ * <li>{@code report.locales} comma separated language tags, default all
+ * supported locales</li>
+ * <li>{@code report.buffer} write buffer per thread in KiB, default 64</li>
+ * <li>{@code labs.pm.provider} the {@code ProductManager} provider, default
+ * ProductFileManager</li>
+ * </ul>
+ * Progress and throughput are printed every second while the job runs.
+ *
+ * @author redhat
+ */
+public class ReportJob {
+
+    private static final int QUEUED_PER_THREAD = 4;
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private static final Logger logger = Logger.getLogger(ReportJob.class.getName());
+
+    private final ProductManager pm;
+    private final ResourceFormatter[] formatters;
+    private final Path[] folders;
+    private final int threads;
+    private final ThreadLocal<ReportWriter> writers;
+    private final LongAdder reports = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public ReportJob(ProductManager pm, Path folder, Collection<String> languageTags, int threads, int bufferSize) throws IOException {
+        this.pm = pm;
+        this.threads = threads;
+        formatters = new ResourceFormatter[languageTags.size()];
+        folders = new Path[languageTags.size()];
+        int i = 0;
+        for (String languageTag : languageTags) {
+            if (!ResourceFormatter.getSupportedLocales().contains(languageTag)) {
+                throw new IllegalArgumentException("Unsupported locale " + languageTag);
+            }
+            formatters[i] = ResourceFormatter.getResourceFormatter(languageTag);
+            folders[i] = Files.createDirectories(folder.resolve(languageTag));
+            i++;
+        }
+        writers = ThreadLocal.withInitial(() -> new ReportWriter(bufferSize));
+    }
+
+    private static void pl(String text) {
+        System.out.println(text);
+    }
+
+    public static void main(String[] args) {
+        int threads = Integer.getInteger("report.threads", Runtime.getRuntime().availableProcessors());
+        int bufferSize = Integer.getInteger("report.buffer", 64) * 1024;
+        String locales = System.getProperty("report.locales");
+        try {
+            ProductManager pm = ProductManager.getInstance(System.getProperty("labs.pm.provider", "ProductFileManager"));
+            Path folder = System.getProperty("report.folder") != null
+                    ? Path.of(System.getProperty("report.folder"))
+                    : Path.of(ResourceFormatter.getResourceFormatter(LAN_TAG_UK).formatData("report", 0)).toAbsolutePath().getParent();
+            Collection<String> languageTags = locales != null
+                    ? Arrays.asList(locales.split(","))
+                    : ResourceFormatter.getSupportedLocales();
+            pl("threads " + threads + ", locales " + languageTags + ", folder " + folder);
+            new ReportJob(pm, folder, languageTags, threads, bufferSize).run();
+        } catch (ProductManagerException ex) {
+            logger.log(Level.WARNING, ex.getMessage(), ex);
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error creating report folders", ex);
+        } catch (InterruptedException ex) {
+            logger.log(Level.WARNING, "Report job interrupted", ex);
+        }
+    }
+
+    /**
+     * Writes the reports of all products and waits until they are written.
+     *
+     * @throws ProductManagerException if the products cannot be read
+     * @throws InterruptedException if the job is interrupted while waiting
+     */
+    public void run() throws ProductManagerException, InterruptedException {
+        List<Product> products = pm.findProducts(product -> true);
+        long total = (long) products.size() * formatters.length;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUED_PER_THREAD), new ThreadPoolExecutor.CallerRunsPolicy());
+        long start = System.nanoTime();
+        long progress = start + PROGRESS_INTERVAL;
+        try {
+            for (Product product : products) {
+                executor.execute(() -> writeReports(product));
+                if (System.nanoTime() >= progress) {
+                    printProgress(total, start);
+                    progress += PROGRESS_INTERVAL;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        while (!executor.awaitTermination(PROGRESS_INTERVAL, TimeUnit.NANOSECONDS)) {
+            printProgress(total, start);
+        }
+        printProgress(total, start);
+        if (errors.sum() > 0) {
+            pl(errors.sum() + " reports failed");
+        }
+    }
+
+    private void writeReports(Product product) {
+        List<Review> reviews;
+        try {
+            reviews = pm.findReviews(product.getId());
+        } catch (ProductManagerException ex) {
+            errors.add(formatters.length);
+            logger.log(Level.WARNING, ex.getMessage(), ex);
+            return;
+        }
+        ReportWriter writer = writers.get();
+        // the report file name is the same in every locale
+        Path fileName = Path.of(formatters[0].formatData("report", product.getId())).getFileName();
+        for (int i = 0; i < formatters.length; i++) {
+            try {
+                bytes.add(writer.write(formatters[i], product, reviews, folders[i].resolve(fileName)));
+                reports.increment();
+            } catch (IOException ex) {
+                errors.increment();
+                logger.log(Level.WARNING, ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private void printProgress(long total, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long done = reports.sum();
+        pl(String.format("%d/%d reports, %.1f s, %.0f reports/s, %.1f MiB/s",
+                done, total, seconds, done / seconds, bytes.sum() / seconds / (1024 * 1024)));
+    }
+
+    /**
+     * Per thread writer that encodes a report straight into a reused buffer
+     * while it is formatted, and writes the buffer to the report file
+     * whenever it is full.
+     */
+    private static class ReportWriter extends Writer {
+
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer bytes;
+        /**
+         * A high surrogate at the end of the last write, waiting for the low
+         * surrogate of the next.
+         */
+        private final CharBuffer carry = CharBuffer.allocate(2);
+        private FileChannel channel;
+        private long written;
+
+        private ReportWriter(int size) {
+            bytes = ByteBuffer.allocateDirect(size);
+        }
+
+        private long write(ResourceFormatter formatter, Product product, List<Review> reviews, Path file) throws IOException {
+            encoder.reset();
+            written = 0;
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                channel = out;
+                formatter.formatProductReport(product, reviews, this);
+                carry.flip();
+                encode(carry, true);
+                CoderResult result = encoder.flush(bytes);
+                while (result.isOverflow()) {
+                    drain();
+                    result = encoder.flush(bytes);
+                }
+                drain();
+            } finally {
+                // Nothing of a failed report may end up in the next one.
+                channel = null;
+                bytes.clear();
+                carry.clear();
+            }
+            return written;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            write(CharBuffer.wrap(buffer, offset, length));
+        }
+
+        @Override
+        public void write(String text, int offset, int length) throws IOException {
+            write(CharBuffer.wrap(text, offset, offset + length));
+        }
+
+        @Override
+        public Writer append(CharSequence text) throws IOException {
+            write(CharBuffer.wrap(text != null ? text : "null"));
+            return this;
+        }
+
+        @Override
+        public Writer append(CharSequence text, int start, int end) throws IOException {
+            write(CharBuffer.wrap(text != null ? text : "null", start, end));
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void write(CharBuffer chars) throws IOException {
+            while (carry.position() > 0 && chars.hasRemaining()) {
+                carry.put(chars.get()).flip();
+                encode(carry, false);
+                carry.compact();
+            }
+            encode(chars, false);
+            carry.put(chars);
+        }
+
+        private void encode(CharBuffer chars, boolean endOfInput) throws IOException {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            while (result.isOverflow()) {
+                drain();
+                result = encoder.encode(chars, bytes, endOfInput);
+            }
+        }
+
+        private void drain() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                written += channel.write(bytes);
+            }
+            bytes.clear();
+        }
+    }
+}
@@ -16,20 +16,28 @@
  */
 package labs.client;
 
-import java.text.MessageFormat;
+import java.io.IOException;
 import java.text.NumberFormat;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.MissingResourceException;
 import java.util.ResourceBundle;
-import java.util.stream.Collectors;
+import java.util.Set;
 import labs.pm.data.Product;
 import labs.pm.data.Review;
 
 /**
+ * {@code ResourceFormatter} formats products and reviews for one locale.
+ * <br>
+ * All message templates are parsed once when the formatter is created, and
+ * number formats are kept per thread, so the shared instances returned by
+ * {@link #getResourceFormatter(String) getResourceFormatter} can be used by
+ * many threads at the same time.
  *
  * @author redhat
  */
@@ -47,8 +55,10 @@ public class ResourceFormatter {
     private static final String RES_BUNDLE_LOC = "labs.client.resources";
     private final Locale locale;
     private final ResourceBundle resources;
+    private final Map<String, MessageTemplate> templates = new HashMap<>();
     private final DateTimeFormatter dateFormat;
-    private final NumberFormat moneyFormat;
+    private final ThreadLocal<NumberFormat> moneyFormat;
+    private final ThreadLocal<NumberFormat> numberFormat;
 
     private static final Map<String, ResourceFormatter> formatters = Map.of(
             LAN_TAG_UK, new ResourceFormatter(Locale.UK),
@@ -65,43 +75,133 @@ public class ResourceFormatter {
         return formatters.getOrDefault(languageTag, formatters.get(LAN_TAG_UK));
     }
 
+    public static Set<String> getSupportedLocales() {
+        return formatters.keySet();
+    }
+
     private ResourceFormatter(Locale locale) {
         this.locale = locale;
         resources = ResourceBundle.getBundle(RES_BUNDLE_LOC, locale);
+        for (String key : resources.keySet()) {
+            templates.put(key, MessageTemplate.compile(resources.getString(key), locale));
+        }
         dateFormat = DateTimeFormatter.ofLocalizedDate(FormatStyle.SHORT).localizedBy(locale);
-        moneyFormat = NumberFormat.getCurrencyInstance(locale);
+        moneyFormat = ThreadLocal.withInitial(() -> NumberFormat.getCurrencyInstance(locale));
+        // MessageFormat.format formats numbers in the default locale
+        numberFormat = ThreadLocal.withInitial(() -> NumberFormat.getInstance(Locale.getDefault(Locale.Category.FORMAT)));
     }
 
     public String formatProduct(Product product) {
-        return MessageFormat.format(getText("product"),
-                product.getName(),
-                moneyFormat.format(product.getPrice()),
-                product.getRating().getStars(),
-                dateFormat.format(product.getBestBefore()));
+        return formatProduct(product, new StringBuilder()).toString();
+    }
+
+    /**
+     * Appends a formatted product to a {@code StringBuilder}.
+     *
+     * @param product the product to format
+     * @param out the builder to append to
+     * @return the builder
+     */
+    public StringBuilder formatProduct(Product product, StringBuilder out) {
+        return getTemplate("product").format(out, productArguments(product));
+    }
+
+    /**
+     * Appends a formatted product to an {@code Appendable}, such as a
+     * {@code Writer}.
+     *
+     * @param product the product to format
+     * @param out the output to append to
+     * @throws IOException if the output cannot be written
+     */
+    public void formatProduct(Product product, Appendable out) throws IOException {
+        getTemplate("product").formatTo(out, productArguments(product));
     }
 
     public String formatProductReport(Product product, List<Review> reviews) {
-        Collections.sort(reviews);
         StringBuilder out = new StringBuilder();
-        out.append(formatProduct(product)).append(System.lineSeparator());
+        try {
+            formatProductReport(product, reviews, out);
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the report of a product and its reviews line by line to
+     * {@code out}, so a buffered {@link java.io.Writer Writer} on a file never
+     * holds more than its buffer of the report.
+     * <br>
+     * The reviews are written best rated first from a sorted copy of the
+     * references; the list passed in is left untouched, so it may be shared
+     * with other threads.
+     *
+     * @param product the product to report
+     * @param reviews the reviews of the product
+     * @param out the output to write the report to
+     * @throws IOException if the output cannot be written
+     */
+    public void formatProductReport(Product product, List<Review> reviews, Appendable out) throws IOException {
+        formatProduct(product, out);
+        out.append(System.lineSeparator());
         if (reviews.isEmpty()) {
             out.append(getText("no.reviews"));
         } else {
-            out.append(reviews.stream()
-                    .map(review -> formatReview(review) + System.lineSeparator())
-                    .collect(Collectors.joining()));
+            Review[] sorted = reviews.toArray(new Review[0]);
+            Arrays.sort(sorted);
+            for (Review review : sorted) {
+                formatReview(review, out);
+                out.append(System.lineSeparator());
+            }
         }
-        return out.toString();
     }
 
     public String formatData(String key, int productId) {
-        return MessageFormat.format(getText(key), productId);
+        return getTemplate(key).format(new StringBuilder(), numberFormat.get().format(productId)).toString();
     }
 
     public String formatReview(Review review) {
-        return MessageFormat.format(getText("review"),
-                review.getRating().getStars(),
-                review.getComments());
+        return formatReview(review, new StringBuilder()).toString();
+    }
+
+    /**
+     * Appends a formatted review to a {@code StringBuilder}.
+     *
+     * @param review the review to format
+     * @param out the builder to append to
+     * @return the builder
+     */
+    public StringBuilder formatReview(Review review, StringBuilder out) {
+        return getTemplate("review").format(out, review.getRating().getStars(), review.getComments());
+    }
+
+    /**
+     * Appends a formatted review to an {@code Appendable}, such as a
+     * {@code Writer}.
+     *
+     * @param review the review to format
+     * @param out the output to append to
+     * @throws IOException if the output cannot be written
+     */
+    public void formatReview(Review review, Appendable out) throws IOException {
+        getTemplate("review").formatTo(out, review.getRating().getStars(), review.getComments());
+    }
+
+    private CharSequence[] productArguments(Product product) {
+        return new CharSequence[]{
+            product.getName(),
+            moneyFormat.get().format(product.getPrice()),
+            product.getRating().getStars(),
+            dateFormat.format(product.getBestBefore())};
+    }
+
+    private MessageTemplate getTemplate(String key) {
+        MessageTemplate template = templates.get(key);
+        if (template == null) {
+            throw new MissingResourceException("Can't find resource for bundle " + RES_BUNDLE_LOC + ", key " + key, RES_BUNDLE_LOC, key);
+        }
+        return template;
     }
 
     private String getText(String key) {
@@ -17,15 +17,12 @@
 package labs.client;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.List;
-import java.util.ServiceLoader;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import static labs.client.ResourceFormatter.LAN_TAG_UK;
@@ -54,9 +51,7 @@ public class Shop {
     public static void main(String[] args) {
         try {
             ResourceFormatter formatter = ResourceFormatter.getResourceFormatter(LAN_TAG_UK);
-            ServiceLoader<ProductManager> serviceLoader = ServiceLoader.load(ProductManager.class);
-//            serviceLoader.stream().forEach(x->pl(x));
-            ProductManager pm = serviceLoader.findFirst().get();
+            ProductManager pm = ProductManager.getInstance(System.getProperty("labs.pm.provider", "ProductFileManager"));
             int pId = 164;
             pm.createProduct(pId, "Kombucha", BigDecimal.valueOf(1.99), Rating.NOT_RATED);
             pm.reviewProduct(pId, Rating.TWO_STAR, "Looks like tea but is it?");
@@ -69,16 +64,16 @@ public class Shop {
             List<Review> reviews = pm.findReviews(pId);
             pl(formatter.formatProduct(product));
             reviews.forEach(review -> pl(formatter.formatReview(review)));
-            printFile(formatter.formatProductReport(product, reviews), Path.of(formatter.formatData("report", product.getId())));
+            printReport(formatter, product, reviews, Path.of(formatter.formatData("report", product.getId())));
         } catch (ProductManagerException ex) {
             logger.log(Level.WARNING, ex.getMessage(), ex);
         }
     }
 
-    private static void printFile(String content, Path file) {
+    private static void printReport(ResourceFormatter formatter, Product product, List<Review> reviews, Path file) {
 
-        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(Files.newOutputStream(file, StandardOpenOption.CREATE), StandardCharsets.UTF_8))) {
-            out.append(content);
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            formatter.formatProductReport(product, reviews, out);
 
         } catch (IOException ex) {
             logger.log(Level.WARNING, ex.getMessage(), ex);
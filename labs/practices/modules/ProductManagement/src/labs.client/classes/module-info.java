@@ -18,5 +18,4 @@
 module labs.client {
     requires java.logging;
     requires labs.pm;
-    uses labs.pm.service.ProductManager;
 }
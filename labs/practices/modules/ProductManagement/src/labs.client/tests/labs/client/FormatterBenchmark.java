@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.client;
+
+import java.math.BigDecimal;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.function.IntUnaryOperator;
+import labs.pm.data.Drink;
+import labs.pm.data.Food;
+import labs.pm.data.Product;
+import labs.pm.data.Rateable;
+import labs.pm.data.Review;
+
+/**
+ * {@code FormatterBenchmark} compares formatting products and reviews with
+ * {@code MessageFormat.format}, which parses the pattern on every call, to
+ * the precompiled templates of {@link ResourceFormatter}.
+ * <br>
+ * The benchmark reads the encapsulated resources of {@code labs.client}, so
+ * it is kept with the tests of the module and runs patched into it, like
+ * them. It is a main class, not a test, for example:
+ * {@code java -p <modules> --patch-module labs.client=<test classes> -m labs.client/labs.client.FormatterBenchmark [language tag]}
+ *
+ * @author redhat
+ */
+public class FormatterBenchmark {
+
+    private static final int PRODUCTS = 1_000;
+    private static final int ROUNDS = 1_000;
+    private static final int WARMUP_ROUNDS = 200;
+
+    private static void pl(String text) {
+        System.out.println(text);
+    }
+
+    public static void main(String[] args) {
+        String languageTag = args.length > 0 ? args[0] : ResourceFormatter.LAN_TAG_UK;
+        Locale locale = Locale.forLanguageTag(languageTag);
+        ResourceFormatter formatter = ResourceFormatter.getResourceFormatter(languageTag);
+        ResourceBundle resources = ResourceBundle.getBundle("labs.client.resources", locale);
+        DateTimeFormatter dateFormat = DateTimeFormatter.ofLocalizedDate(FormatStyle.SHORT).localizedBy(locale);
+        NumberFormat moneyFormat = NumberFormat.getCurrencyInstance(locale);
+        Product[] products = new Product[PRODUCTS];
+        Review[] reviews = new Review[PRODUCTS];
+        for (int i = 0; i < PRODUCTS; i++) {
+            products[i] = i % 2 == 0
+                    ? new Drink(i, "Drink " + i, BigDecimal.valueOf(100 + i, 2), Rateable.convert(i % 6))
+                    : new Food(i, "Food " + i, BigDecimal.valueOf(100 + i, 2), Rateable.convert(i % 6), LocalDate.now().plusDays(i % 30));
+            reviews[i] = new Review(Rateable.convert(i % 6), "Review " + i);
+        }
+        StringBuilder out = new StringBuilder();
+        pl("benchmark\tns/op");
+        run("product MessageFormat", i -> {
+            Product product = products[i];
+            return MessageFormat.format(resources.getString("product"),
+                    product.getName(),
+                    moneyFormat.format(product.getPrice()),
+                    product.getRating().getStars(),
+                    dateFormat.format(product.getBestBefore())).length();
+        });
+        run("product template", i -> formatter.formatProduct(products[i]).length());
+        run("product StringBuilder", i -> {
+            out.setLength(0);
+            return formatter.formatProduct(products[i], out).length();
+        });
+        run("review MessageFormat", i -> {
+            Review review = reviews[i];
+            return MessageFormat.format(resources.getString("review"),
+                    review.getRating().getStars(),
+                    review.getComments()).length();
+        });
+        run("review template", i -> formatter.formatReview(reviews[i]).length());
+        run("review StringBuilder", i -> {
+            out.setLength(0);
+            return formatter.formatReview(reviews[i], out).length();
+        });
+    }
+
+    private static void run(String name, IntUnaryOperator operation) {
+        long length = 0;
+        for (int r = 0; r < WARMUP_ROUNDS; r++) {
+            length += round(operation);
+        }
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            length += round(operation);
+        }
+        long elapsed = System.nanoTime() - start;
+        pl(name + "\t" + elapsed / ((long) ROUNDS * PRODUCTS) + (length == 0 ? "\t(no output)" : ""));
+    }
+
+    private static long round(IntUnaryOperator operation) {
+        long length = 0;
+        for (int i = 0; i < PRODUCTS; i++) {
+            length += operation.applyAsInt(i);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@code CommentArena} stores review comments as UTF-8 bytes in shared
+ * chunks, so a comment costs its encoded length and a length prefix instead
+ * of a {@code String} object with its own array.
+ * <br>
+ * A comment is addressed by a long holding the chunk number in the high and
+ * the offset in the low 32 bits. Comments are only appended, so an address
+ * stays valid as long as the arena. Appends are serialised; a comment can be
+ * read without locking by any thread that got its address through a lock or
+ * other safe publication, as the chunk was published before the address.
+ * <br>
+ * Recently appended comments are remembered in a fixed number of slots
+ * picked by hash, and appending an equal comment again returns the address
+ * of the earlier copy, so comments that repeat share their bytes.
+ *
+ * @author redhat
+ */
+final class CommentArena {
+
+    private static final int FIRST_CHUNK_SIZE = 1 << 12;
+    private static final int SMALL_FIRST_CHUNK_SIZE = 1 << 8;
+    private static final int MAX_CHUNK_SIZE = 1 << 20;
+    private static final long NO_COMMENTS = -1;
+
+    private final int firstChunkSize;
+    private final String[] shared;
+    private final long[] sharedAddresses;
+    private long sharedCount;
+    private volatile byte[][] chunks = new byte[8][];
+    private int chunkCount;
+    private byte[] current;
+    private int position;
+
+    /**
+     * Creates an arena.
+     *
+     * @param sharedSlots the number of comments remembered to share, 0 to
+     * store every comment
+     */
+    CommentArena(int sharedSlots) {
+        this(sharedSlots, FIRST_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates an arena for the comments of a single product, which does not
+     * share comments and starts with a small chunk.
+     *
+     * @return the arena
+     */
+    static CommentArena small() {
+        return new CommentArena(0, SMALL_FIRST_CHUNK_SIZE);
+    }
+
+    private CommentArena(int sharedSlots, int firstChunkSize) {
+        this.firstChunkSize = firstChunkSize;
+        int slots = sharedSlots > 0 ? Integer.highestOneBit(Math.max(sharedSlots, 2) - 1) << 1 : 0;
+        shared = new String[slots];
+        sharedAddresses = new long[slots];
+    }
+
+    /**
+     * Appends comments to the arena, unless equal comments were appended
+     * recently.
+     *
+     * @param comments the comments, may be null
+     * @return the address of the comments
+     */
+    synchronized long append(String comments) {
+        if (comments == null) {
+            return NO_COMMENTS;
+        }
+        int slot = 0;
+        if (shared.length > 0) {
+            int hash = comments.hashCode();
+            slot = (hash ^ (hash >>> 16)) & (shared.length - 1);
+            if (comments.equals(shared[slot])) {
+                sharedCount++;
+                return sharedAddresses[slot];
+            }
+        }
+        byte[] bytes = comments.getBytes(StandardCharsets.UTF_8);
+        int needed = varIntSize(bytes.length) + bytes.length;
+        if (current == null || current.length - position < needed) {
+            // Chunks grow up to MAX_CHUNK_SIZE, so a small catalogue does not allocate a large chunk.
+            int size = current == null ? firstChunkSize : Math.min(MAX_CHUNK_SIZE, current.length * 2);
+            current = new byte[Math.max(size, needed)];
+            position = 0;
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            chunks[chunkCount++] = current;
+        }
+        long address = ((long) (chunkCount - 1) << 32) | position;
+        int length = bytes.length;
+        while (length >= 0x80) {
+            current[position++] = (byte) (length | 0x80);
+            length >>>= 7;
+        }
+        current[position++] = (byte) length;
+        System.arraycopy(bytes, 0, current, position, bytes.length);
+        position += bytes.length;
+        if (shared.length > 0) {
+            shared[slot] = comments;
+            sharedAddresses[slot] = address;
+        }
+        return address;
+    }
+
+    /**
+     * Reads comments back from the arena.
+     *
+     * @param address the address returned by {@link #append(String) append}
+     * @return the comments
+     */
+    String read(long address) {
+        if (address == NO_COMMENTS) {
+            return null;
+        }
+        byte[] chunk = chunks[(int) (address >>> 32)];
+        int offset = (int) address;
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = chunk[offset++];
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return new String(chunk, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Counts the appends that shared the bytes of an earlier comment.
+     */
+    synchronized long getSharedCount() {
+        return sharedCount;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code CommentDictionary} hands out one shared {@code String} for equal
+ * review comments, so comments that repeat, such as "Good" or "Ok", are kept
+ * once instead of once per review.
+ * <br>
+ * The dictionary is a fixed number of slots picked by hash. A comment that is
+ * not in its slot replaces the comment there, so unique comments can never
+ * make the dictionary grow; frequent comments simply come back. Slots are
+ * read and written without locking by all loader threads: a race at worst
+ * loses an entry and keeps a duplicate.
+ *
+ * @author redhat
+ */
+final class CommentDictionary {
+
+    private final String[] comments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    CommentDictionary(int size) {
+        comments = new String[Integer.highestOneBit(Math.max(size, 2) - 1) << 1];
+    }
+
+    String canonical(String text) {
+        int slot = slot(text.hashCode());
+        String known = comments[slot];
+        if (text.equals(known)) {
+            hits.increment();
+            return known;
+        }
+        misses.increment();
+        comments[slot] = text;
+        return text;
+    }
+
+    /**
+     * Looks up a comment in part of a line, only creating a {@code String}
+     * when the comment is not in the dictionary.
+     *
+     * @param text the line
+     * @param start the index of the first character of the comment
+     * @param end the index after the last character of the comment
+     * @return the shared comment
+     */
+    String canonical(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        int slot = slot(hash);
+        String known = comments[slot];
+        if (known != null && matches(known, text, start, end)) {
+            hits.increment();
+            return known;
+        }
+        misses.increment();
+        String comment = text.subSequence(start, end).toString();
+        comments[slot] = comment;
+        return comment;
+    }
+
+    Map<String, Long> getStatistics() {
+        return Map.of("review.dictionary.hits", hits.sum(),
+                "review.dictionary.misses", misses.sum());
+    }
+
+    private int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & (comments.length - 1);
+    }
+
+    private static boolean matches(String known, CharSequence text, int start, int end) {
+        if (known.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < known.length(); i++) {
+            if (known.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import labs.pm.data.Product;
+import labs.pm.data.Rating;
+
+/**
+ * {@code DiscountTotals} keeps the sum of the current discounts in cents and
+ * the number of products per rating, so {@code getDiscounts} does not have to
+ * go over all products.
+ * <br>
+ * Discounts of some products depend on the time of day or on the date. The
+ * totals are valid until the first moment one of these discounts changes.
+ * After that {@link #get(LocalDateTime) get} returns null and the totals have
+ * to be {@link #rebuild(Stream, LocalDateTime) rebuilt} from all products.
+ *
+ * @author redhat
+ */
+class DiscountTotals {
+
+    private final long[] totals = new long[Rating.values().length];
+    private final int[] counts = new int[Rating.values().length];
+    private LocalDateTime validFrom;
+    private LocalDateTime validUntil;
+
+    DiscountTotals() {
+        clear();
+    }
+
+    /**
+     * Adds a new product to the totals.
+     *
+     * @param product the new product
+     * @param now the current date and time
+     */
+    void add(Product product, LocalDateTime now) {
+        long discount = product.getDiscountCents();
+        LocalDateTime change = product.getNextDiscountChange(now);
+        synchronized (this) {
+            int rating = product.getRating().ordinal();
+            totals[rating] += discount;
+            counts[rating]++;
+            if (change.isBefore(validUntil)) {
+                validUntil = change;
+            }
+        }
+    }
+
+    /**
+     * Moves the discount of a product that got a new rating to the total of
+     * that rating. Only the rating may differ, so the discount and the moment
+     * it changes stay the same.
+     *
+     * @param previous the product with the old rating
+     * @param product the product with the new rating
+     */
+    void rerate(Product previous, Product product) {
+        if (previous.getRating() == product.getRating()) {
+            return;
+        }
+        long discount = product.getDiscountCents();
+        synchronized (this) {
+            int rating = previous.getRating().ordinal();
+            totals[rating] -= discount;
+            counts[rating]--;
+            rating = product.getRating().ordinal();
+            totals[rating] += discount;
+            counts[rating]++;
+        }
+    }
+
+    /**
+     * Gets the discount totals per rating, for all ratings that have at least
+     * one product.
+     *
+     * @param now the current date and time
+     * @return the totals, or null if a discount changed since the last
+     * rebuild, or the clock was set back to before it
+     */
+    synchronized Map<Rating, BigDecimal> get(LocalDateTime now) {
+        if (now.isBefore(validFrom) || !now.isBefore(validUntil)) {
+            return null;
+        }
+        Map<Rating, BigDecimal> discounts = new EnumMap<>(Rating.class);
+        for (Rating rating : Rating.values()) {
+            if (counts[rating.ordinal()] > 0) {
+                discounts.put(rating, BigDecimal.valueOf(totals[rating.ordinal()], 2));
+            }
+        }
+        return discounts;
+    }
+
+    /**
+     * Calculates the totals again from all products. The stream may be
+     * parallel, each thread then sums its part of the products separately.
+     *
+     * @param products all products
+     * @param now the current date and time, taken before the products are
+     * read
+     */
+    synchronized void rebuild(Stream<Product> products, LocalDateTime now) {
+        DiscountTotals rebuilt = products.collect(
+                () -> {
+                    DiscountTotals part = new DiscountTotals();
+                    part.validUntil = LocalDateTime.MAX;
+                    return part;
+                },
+                (part, product) -> part.add(product, now),
+                DiscountTotals::addAll);
+        System.arraycopy(rebuilt.totals, 0, totals, 0, totals.length);
+        System.arraycopy(rebuilt.counts, 0, counts, 0, counts.length);
+        validFrom = now;
+        validUntil = rebuilt.validUntil;
+    }
+
+    /**
+     * Marks the totals as invalid, until they are rebuilt.
+     */
+    synchronized void clear() {
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] = 0;
+            counts[i] = 0;
+        }
+        validFrom = LocalDateTime.MAX;
+        validUntil = LocalDateTime.MIN;
+    }
+
+    private void addAll(DiscountTotals other) {
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] += other.totals[i];
+            counts[i] += other.counts[i];
+        }
+        if (other.validUntil.isBefore(validUntil)) {
+            validUntil = other.validUntil;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.time.LocalDate;
+
+/**
+ * {@code FieldSplitter} splits a line of delimited text into fields, without
+ * creating an intermediate {@code Object[]} or a {@code String} per field.
+ * <br>
+ * It supports data formats of the form <code>{0},{1},...,{n}</code> and splits
+ * the same way as {@link java.text.MessageFormat#parse(String) MessageFormat}
+ * does for such a pattern: each field ends at the next separator and the last
+ * field holds the rest of the line.
+ * <br>
+ * Numbers and dates in plain form are converted directly from the characters
+ * of the line. Anything else is handed to the JDK parse methods, so results
+ * and exceptions are identical to parsing the field as a {@code String}.
+ * <br>
+ * Instances keep the positions of the last split line and are not thread
+ * safe.
+ *
+ * @author redhat
+ */
+class FieldSplitter {
+
+    /**
+     * Same message as a {@code MessageFormat} parse error, so malformed lines
+     * are logged the same way in both parse modes.
+     */
+    private static final String PARSE_ERROR = "MessageFormat parse error!";
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L,
+        100_000_000L, 1_000_000_000L, 10_000_000_000L, 100_000_000_000L,
+        1_000_000_000_000L, 10_000_000_000_000L, 100_000_000_000_000L, 1_000_000_000_000_000L};
+    private static final int MAX_INT_DIGITS = 9;
+    private static final int MAX_DECIMAL_DIGITS = 15;
+    private static final int MAX_DECIMAL_INTEGER_DIGITS = 7;
+
+    private final char separator;
+    private final int[] starts;
+    private final int[] ends;
+    private CharSequence text;
+
+    FieldSplitter(String pattern) {
+        if (!supports(pattern)) {
+            throw new IllegalArgumentException("Unsupported data format " + pattern);
+        }
+        int fields = (pattern.length() + 1) / 4;
+        separator = fields > 1 ? pattern.charAt(3) : ',';
+        starts = new int[fields];
+        ends = new int[fields];
+    }
+
+    /**
+     * Checks whether a data format only consists of the arguments 0 to n, in
+     * order and separated by one and the same character.
+     *
+     * @param pattern a {@code MessageFormat} pattern
+     * @return true if lines of this format can be split by this class
+     */
+    static boolean supports(String pattern) {
+        if ((pattern.length() + 1) % 4 != 0 || pattern.length() > 39) {
+            return false;
+        }
+        for (int field = 0, i = 0; i < pattern.length(); field++, i += 4) {
+            if (pattern.charAt(i) != '{' || pattern.charAt(i + 1) != '0' + field || pattern.charAt(i + 2) != '}') {
+                return false;
+            }
+            if (i + 3 < pattern.length()) {
+                char c = pattern.charAt(i + 3);
+                if (c == '{' || c == '}' || c == '\'' || c != pattern.charAt(3)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    void split(CharSequence text) throws ParseException {
+        this.text = text;
+        int offset = 0;
+        int last = starts.length - 1;
+        for (int field = 0; field < last; field++) {
+            int end = indexOf(separator, offset);
+            if (end < 0) {
+                throw new ParseException(PARSE_ERROR, offset);
+            }
+            starts[field] = offset;
+            ends[field] = end;
+            offset = end + 1;
+        }
+        starts[last] = offset;
+        ends[last] = text.length();
+    }
+
+    boolean isField(int field, String value) {
+        int length = ends[field] - starts[field];
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(starts[field] + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String getString(int field) {
+        return text.subSequence(starts[field], ends[field]).toString();
+    }
+
+    String getString(int field, CommentDictionary dictionary) {
+        return dictionary.canonical(text, starts[field], ends[field]);
+    }
+
+    /**
+     * Converts a field the way {@code Integer.parseInt} does.
+     */
+    int getInt(int field) {
+        int start = starts[field];
+        int end = ends[field];
+        if (end > start && end - start <= MAX_INT_DIGITS) {
+            int value = 0;
+            int i = start;
+            for (; i < end && isDigit(text.charAt(i)); i++) {
+                value = value * 10 + (text.charAt(i) - '0');
+            }
+            if (i == end) {
+                return value;
+            }
+        }
+        return Integer.parseInt(getString(field));
+    }
+
+    /**
+     * Converts a field the way
+     * {@code BigDecimal.valueOf(Double.parseDouble(field))} does.
+     * <br>
+     * For plain decimals of at most 15 digits from 0.001 up to 10 million the
+     * shortest decimal representation of the double is the number itself
+     * without trailing zeros, with at least one fraction digit. Other values
+     * go through {@code Double.parseDouble}.
+     */
+    BigDecimal getDecimal(int field) {
+        int start = starts[field];
+        int end = ends[field];
+        long unscaled = 0;
+        int digits = 0;
+        int integerDigits = 0;
+        int scale = -1;
+        int i = start;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (isDigit(c)) {
+                if (digits > 0 || c != '0') {
+                    digits++;
+                }
+                unscaled = unscaled * 10 + (c - '0');
+                if (scale < 0) {
+                    integerDigits = digits;
+                } else {
+                    scale++;
+                }
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                break;
+            }
+            if (digits > MAX_DECIMAL_DIGITS || integerDigits > MAX_DECIMAL_INTEGER_DIGITS) {
+                break;
+            }
+        }
+        boolean digitsFound = end - start > (scale < 0 ? 0 : 1);
+        if (i == end && digitsFound) {
+            scale = Math.max(scale, 0);
+            while (scale > 0 && unscaled % 10 == 0) {
+                unscaled /= 10;
+                scale--;
+            }
+            if (unscaled == 0 || scale < 3 || unscaled >= POWERS_OF_TEN[scale - 3]) {
+                return scale == 0 ? BigDecimal.valueOf(unscaled * 10, 1) : BigDecimal.valueOf(unscaled, scale);
+            }
+        }
+        return BigDecimal.valueOf(Double.parseDouble(getString(field)));
+    }
+
+    /**
+     * Converts a field the way {@code LocalDate.parse} does.
+     */
+    LocalDate getDate(int field) {
+        int start = starts[field];
+        if (ends[field] - start == 10 && text.charAt(start + 4) == '-' && text.charAt(start + 7) == '-') {
+            int year = digits(start, 4);
+            int month = digits(start + 5, 2);
+            int day = digits(start + 8, 2);
+            if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= 28) {
+                return LocalDate.of(year, month, day);
+            }
+        }
+        // Invalid and end of month dates are checked, and reported, by LocalDate.parse.
+        return LocalDate.parse(getString(field));
+    }
+
+    private int digits(int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private int indexOf(char c, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code LoadStatistics} counts the files and bytes read by one run of the
+ * data loader. The counters may be updated from several loader threads.
+ *
+ * @author redhat
+ */
+class LoadStatistics {
+
+    private final long start = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    void fileRead(long size) {
+        files.increment();
+        bytes.add(size);
+    }
+
+    @Override
+    public String toString() {
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1_000_000_000.0;
+        return String.format("%d files, %d bytes in %.3f s (%.0f files/s, %.0f bytes/s)",
+                files.sum(), bytes.sum(), seconds, files.sum() / seconds, bytes.sum() / seconds);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import labs.pm.data.Product;
+import labs.pm.data.Review;
+
+/**
+ * {@code MappedSnapshot} gives access to the products of a
+ * {@link ProductSnapshot} file that is mapped into memory.
+ * <br>
+ * Opening a snapshot only indexes the position of each product record. A
+ * product and its reviews are read from the mapping when they are taken,
+ * after which the snapshot no longer holds them. Different products can be
+ * taken concurrently.
+ *
+ * @author redhat
+ */
+class MappedSnapshot {
+
+    private final ByteBuffer buffer;
+    private final long reviewSection;
+    private final Map<Integer, Integer> positions = new ConcurrentHashMap<>();
+
+    /**
+     * Maps a snapshot file. The mapping stays valid after the channel is
+     * closed.
+     *
+     * @param channel a snapshot file, open for reading
+     * @throws IOException if the file is not a snapshot or cannot be mapped
+     */
+    MappedSnapshot(FileChannel channel) throws IOException {
+        if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException("Product snapshot of " + channel.size() + " bytes is too large to map");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        ProductSnapshot.Reader in = new ProductSnapshot.Reader(buffer.duplicate());
+        int productCount = ProductSnapshot.readHeader(in);
+        if (in.version() != ProductSnapshot.VERSION) {
+            throw new StreamCorruptedException("Product snapshot version " + in.version() + " has no review positions to map");
+        }
+        reviewSection = buffer.getLong(ProductSnapshot.REVIEW_SECTION_POSITION);
+        for (int i = 0; i < productCount; i++) {
+            int position = in.position();
+            positions.put(ProductSnapshot.skipProduct(in), position);
+            // Review count and review position
+            in.skip(Integer.BYTES + Long.BYTES);
+        }
+    }
+
+    boolean contains(int id) {
+        return positions.containsKey(id);
+    }
+
+    boolean isEmpty() {
+        return positions.isEmpty();
+    }
+
+    int size() {
+        return positions.size();
+    }
+
+    /**
+     * @return a copy of the ids of the products not taken yet
+     */
+    Set<Integer> ids() {
+        return Set.copyOf(positions.keySet());
+    }
+
+    /**
+     * Reads a product and its reviews from the snapshot into a products map.
+     *
+     * @param id the product id
+     * @param products the map to put the product and its reviews in
+     * @return the product, or null if the snapshot does not hold it (anymore)
+     * @throws IOException if the product record is corrupt
+     */
+    Product take(int id, Map<Product, List<Review>> products) throws IOException {
+        Integer position = positions.remove(id);
+        if (position == null) {
+            return null;
+        }
+        ProductSnapshot.Reader in = new ProductSnapshot.Reader(buffer.duplicate().position(position));
+        Product product = ProductSnapshot.readProduct(in);
+        int reviewCount = in.getInt();
+        long reviewPosition = reviewSection + in.getLong();
+        if (reviewPosition < reviewSection || reviewPosition > buffer.limit()) {
+            throw new StreamCorruptedException("Invalid review position " + reviewPosition + " in product snapshot");
+        }
+        ProductSnapshot.Reader reviews = new ProductSnapshot.Reader(buffer.duplicate().position((int) reviewPosition));
+        products.put(product, ProductSnapshot.readReviews(reviews, reviewCount));
+        return product;
+    }
+}
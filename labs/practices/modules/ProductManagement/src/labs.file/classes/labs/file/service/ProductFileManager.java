@@ -16,38 +16,54 @@
  */
 package labs.file.service;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.text.MessageFormat;
 import java.text.ParseException;
 import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import labs.pm.data.Drink;
 import labs.pm.data.Food;
 import labs.pm.data.Product;
 import labs.pm.data.Rateable;
 import labs.pm.data.Rating;
 import labs.pm.data.Review;
+import labs.pm.data.TimeSource;
 import labs.pm.service.ProductManager;
 import labs.pm.service.ProductManagerException;
+import labs.pm.service.ProductQuery;
 
 /**
  *
@@ -56,23 +72,105 @@ import labs.pm.service.ProductManagerException;
 public class ProductFileManager implements ProductManager {
 
     public static final int ARRAY_INCREMENT = 5;
-
-    private Map<Product, List<Review>> products = new HashMap<>();
+    private static final int LOCK_STRIPES = 256;
+    /**
+     * Placeholder for the reviews of a product that are not loaded yet, or
+     * were unloaded, when reviews are loaded lazily.
+     */
+    private static final List<Review> NOT_LOADED = Collections.unmodifiableList(new ArrayList<>());
+
+    private final Map<Product, List<Review>> products = new ConcurrentHashMap<>();
+    /**
+     * Primary index on product id, kept in sync with the {@code products} map
+     * so that {@link #findProduct(int) findProduct} does not have to scan all
+     * products.
+     */
+    private final Map<Integer, Product> productIndex = new ConcurrentHashMap<>();
+    private final DiscountTotals discountTotals = new DiscountTotals();
+    private final QueryIndexes queryIndexes = new QueryIndexes();
+    /**
+     * Running rating totals per product id, created on the first review of a
+     * product after it has been loaded.
+     */
+    private final Map<Integer, RatingTotals> ratingTotals = new ConcurrentHashMap<>();
+    /**
+     * Guards the data as a whole. Changes to a single product share the read
+     * lock and are serialised per product by a {@link #stripes stripe} lock.
+     * Replacing or writing out all data takes the write lock.
+     */
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     private final Lock writeLock = lock.writeLock();
     private final Lock readLock = lock.readLock();
+    /**
+     * Locks picked by product id, so reviews of different products can
+     * proceed in parallel.
+     */
+    private final Lock[] stripes = Stream.generate(ReentrantLock::new).limit(LOCK_STRIPES).toArray(Lock[]::new);
 
     private final ResourceBundle config = ResourceBundle.getBundle("labs.file.service.config");
-    private final MessageFormat reviewFormat = new MessageFormat(config.getString("review.data.format"));
-    private final MessageFormat productFormat = new MessageFormat(config.getString("product.data.format"));
-    private final Path reportsFolder = Path.of(config.getString("reports.folder"));
-    private final Path dataFolder = Path.of(config.getString("data.folder"));
-    private final Path tempFolder = Path.of(config.getString("temp.folder"));
+    // MessageFormat and FieldSplitter are not thread safe, so each loader thread parses with its own copy.
+    private final ThreadLocal<MessageFormat> reviewFormat = ThreadLocal.withInitial(() -> new MessageFormat(setting("review.data.format")));
+    private final ThreadLocal<MessageFormat> productFormat = ThreadLocal.withInitial(() -> new MessageFormat(setting("product.data.format")));
+    private final ThreadLocal<FieldSplitter> reviewFields = ThreadLocal.withInitial(() -> new FieldSplitter(setting("review.data.format")));
+    private final ThreadLocal<FieldSplitter> productFields = ThreadLocal.withInitial(() -> new FieldSplitter(setting("product.data.format")));
+    // Data formats that FieldSplitter cannot handle are always parsed with MessageFormat.
+    private final boolean splitFields = setting("data.parser").equals("split")
+            && FieldSplitter.supports(setting("review.data.format"))
+            && FieldSplitter.supports(setting("product.data.format"));
+    private final Path reportsFolder = Path.of(setting("reports.folder"));
+    private final Path dataFolder = Path.of(setting("data.folder"));
+    private final Path tempFolder = Path.of(setting("temp.folder"));
+    private final int loadThreads = Integer.parseInt(setting("data.load.threads"));
+    private final boolean binarySnapshot = setting("snapshot.format").equals("binary");
+    private final boolean mappedStartup = setting("startup.mode").equals("snapshot");
+    private final Path snapshotFile = tempFolder.resolve(setting("snapshot.file"));
+    private final int parallelThreshold = Integer.parseInt(setting("parallel.threshold"));
+    private final boolean columnReviews = setting("review.store").equals("columns");
+    private final int dictionarySize = Integer.parseInt(setting("review.dictionary.size"));
+    /**
+     * Shared instances of repeated review comments, or null if comments are
+     * not shared.
+     */
+    private final CommentDictionary commentDictionary = dictionarySize > 0 ? new CommentDictionary(dictionarySize) : null;
+    /**
+     * Comments of the reviews kept in {@link ReviewColumns}, replaced together
+     * with all products under the write lock. Reviews that are loaded lazily
+     * keep their comments in an arena of their own instead.
+     */
+    private CommentArena comments = new CommentArena(dictionarySize);
+    /**
+     * Products whose reviews are loaded when reviews are loaded lazily, or
+     * null when all reviews are loaded at startup.
+     */
+    private final ReviewCache reviewCache = createReviewCache();
+    /**
+     * Pool for queries over all products, separate from the common pool so
+     * large queries cannot starve other work. Null when queries are
+     * sequential.
+     */
+    private final ForkJoinPool queryPool = createQueryPool(Integer.parseInt(setting("parallel.threads")));
+    /**
+     * Products of the snapshot mapped at startup that have not been read into
+     * the {@code products} map yet, or null if there are none.
+     */
+    private volatile MappedSnapshot snapshot;
+    /**
+     * Log that each review is appended to, or null if reviews are not logged.
+     */
+    private final ReviewLog reviewLog;
 
     private static final Logger logger = Logger.getLogger(ProductManager.class.getName());
 
     public ProductFileManager() {
-        loadAllData();
+        if (mappedStartup) {
+            loadSnapshot();
+        } else {
+            loadAllData();
+        }
+        reviewLog = openReviewLog();
+        if (reviewCache != null || reviewLog != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+        }
     }
 
     @Override
@@ -90,112 +188,450 @@ public class ProductFileManager implements ProductManager {
     @Override
     public Product reviewProduct(int id, Rating rating, String comments) {
         Product product = null;
+        long logPosition = 0;
+        Lock stripe = stripe(id);
         try {
-            writeLock.lock();
+            readLock.lock();
+            stripe.lock();
             product = findProduct(id);
+            if (reviewLog != null) {
+                logPosition = reviewLog.append(id, rating, comments);
+            }
             product = reviewProduct(product, rating, comments);
         } catch (ProductManagerException ex) {
             logger.log(Level.INFO, ex.getMessage());
             return null;
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error logging review " + ex.getMessage(), ex);
+            return null;
         } finally {
-            writeLock.unlock();
+            stripe.unlock();
+            readLock.unlock();
+        }
+        if (reviewLog != null) {
+            // Wait for a group sync outside the lock, so other reviews can join the same sync.
+            try {
+                reviewLog.awaitSync(logPosition);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ex) {
+                // The review is applied and is written with the data, it is only not durable in the log yet.
+                logger.log(Level.SEVERE, "Review of product " + id + " not forced to the review log " + ex.getMessage(), ex);
+            }
         }
         return product;
     }
 
-    private Product reviewProduct(Product product, Rating rating, String comments) {
-        List<Review> reviews = products.get(product);
+    private Product reviewProduct(Product product, Rating rating, String comments) throws ProductManagerException {
+        List<Review> reviews = reviews(product);
         products.remove(product, reviews);
-        reviews.add(new Review(rating, comments));
-        product = product.applyRating(
-                Rateable.convert(
-                        (int) Math.round(
-                                reviews.stream()
-                                        .mapToInt(r -> r.getRating().ordinal())
-                                        .average()
-                                        .orElse(0))));
+        RatingTotals totals = ratingTotals.computeIfAbsent(product.getId(), id -> new RatingTotals(reviews));
+        reviews.add(new Review(rating, canonical(comments)));
+        totals.add(rating);
+        product = product.applyRating(totals.getAverage());
         products.put(product, reviews);
+        indexProduct(product);
+        if (reviewCache != null) {
+            reviewCache.markDirty(product.getId());
+        }
         return product;
     }
 
     @Override
     public Product findProduct(int id) throws ProductManagerException {
-        try {
-            readLock.lock();
-            return products.keySet()
-                    .stream()
-                    .filter(p -> p.getId() == id)
-                    .findFirst()
-                    .orElseThrow(() -> new ProductManagerException("Product with id " + id + " not found"));//.get();//.orElseGet(() -> null);
-        } finally {
-            readLock.unlock();
+        Product product = productIndex.get(id);
+        if (product == null && snapshot != null) {
+            product = takeProduct(id);
         }
+        if (product == null) {
+            throw new ProductManagerException("Product with id " + id + " not found");
+        }
+        return product;
     }
 
     @Override
     public List<Product> findProducts(Predicate<Product> filter) throws ProductManagerException {
-        return products.keySet()
-                .stream()
+        takeAllProducts();
+        return overAllProducts(stream -> stream
                 .filter(filter)
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
     }
 
     @Override
-    public List<Review> findReviews(int id) throws ProductManagerException {
-        return products.get(findProduct(id));
+    public List<Product> findProducts(ProductQuery query) throws ProductManagerException {
+        takeAllProducts();
+        Iterable<Integer> ids = queryIndexes.candidates(query, TimeSource.getInstance().today());
+        if (ids == null) {
+            return findProducts(query::matches);
+        }
+        List<Product> found = new ArrayList<>();
+        // A product that is re-rated while the candidates are read can be seen in its old and its new rating.
+        Set<Integer> seen = new HashSet<>();
+        for (int id : ids) {
+            Product product = productIndex.get(id);
+            if (product != null && query.matches(product) && seen.add(id)) {
+                found.add(product);
+            }
+        }
+        return found;
     }
 
     @Override
-    public Map<Rating, BigDecimal> getDiscounts() throws ProductManagerException {
+    public List<Review> findReviews(int id) throws ProductManagerException {
+        Lock stripe = stripe(id);
         try {
             readLock.lock();
-            return products.keySet()
-                    .stream()
-                    .collect(
-                            Collectors.groupingBy(
-                                    product -> product.getRating(),
-                                    Collectors.collectingAndThen(
-                                            Collectors.summingDouble(product -> product.getDiscount().doubleValue()),
-                                            discount -> BigDecimal.valueOf(discount)
-                                    )
-                            )
-                    );
+            stripe.lock();
+            // reviewProduct replaces the map entry and appends to the list under the same lock
+            List<Review> reviews = reviews(findProduct(id));
+            return reviews instanceof ReviewColumns ? ((ReviewColumns) reviews).view() : new ArrayList<>(reviews);
         } finally {
+            stripe.unlock();
             readLock.unlock();
         }
     }
 
+    @Override
+    public Map<Rating, BigDecimal> getDiscounts() throws ProductManagerException {
+        takeAllProducts();
+        LocalDateTime now = TimeSource.getInstance().currentDateTime();
+        Map<Rating, BigDecimal> discounts = discountTotals.get(now);
+        if (discounts == null) {
+            // A time dependent discount changed, calculate all totals again.
+            try {
+                writeLock.lock();
+                overAllProducts(stream -> {
+                    discountTotals.rebuild(stream, now);
+                    return null;
+                });
+            } finally {
+                writeLock.unlock();
+            }
+            discounts = discountTotals.get(now);
+        }
+        return discounts;
+    }
+
+    @Override
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new HashMap<>();
+        if (reviewCache != null) {
+            statistics.putAll(reviewCache.getStatistics());
+        }
+        if (commentDictionary != null) {
+            statistics.putAll(commentDictionary.getStatistics());
+            if (columnReviews && reviewCache == null) {
+                statistics.put("review.arena.shared", comments.getSharedCount());
+            }
+        }
+        return statistics;
+    }
+
     private Product putProduct(Product product) {
+        Lock stripe = stripe(product.getId());
         try {
-            writeLock.lock();
-            products.putIfAbsent(product, new ArrayList<>());
+            readLock.lock();
+            stripe.lock();
+            if (snapshot != null) {
+                takeProduct(product.getId());
+            }
+            if (products.putIfAbsent(product, reviewCache != null ? NOT_LOADED : storeReviews(new ArrayList<>())) == null) {
+                indexProduct(product);
+            }
         } catch (Exception ex) {
             logger.log(Level.INFO, "Error adding product " + ex.getMessage());
             // Discard the product on exception when adding product.
             return null;
         } finally {
-            writeLock.unlock();
+            stripe.unlock();
+            readLock.unlock();
+        }
+        return product;
+    }
+
+    /**
+     * Adds a product to the id index, the query indexes and the discount
+     * totals, replacing an earlier version of the same product.
+     */
+    private void indexProduct(Product product) {
+        Product previous = productIndex.put(product.getId(), product);
+        if (previous == null) {
+            queryIndexes.add(product);
+            discountTotals.add(product, TimeSource.getInstance().currentDateTime());
+        } else {
+            queryIndexes.rerate(previous, product);
+            discountTotals.rerate(previous, product);
+        }
+    }
+
+    private ReviewCache createReviewCache() {
+        if (!setting("review.load").equals("lazy")) {
+            return null;
+        }
+        if (mappedStartup || !setting("review.log.sync").equals("off")) {
+            logger.log(Level.WARNING, "Lazy review loading needs csv startup without review log, loading all reviews");
+            return null;
+        }
+        return new ReviewCache(Integer.parseInt(setting("review.cache.size")));
+    }
+
+    /**
+     * Returns the reviews of a product, loading them first when reviews are
+     * loaded lazily. Loading may unload the least recently used reviews. The
+     * caller holds the lock of the product.
+     */
+    private List<Review> reviews(Product product) throws ProductManagerException {
+        List<Review> reviews = products.get(product);
+        if (reviewCache == null) {
+            return reviews;
+        }
+        if (reviews != NOT_LOADED) {
+            reviewCache.hit(product.getId());
+            return reviews;
+        }
+        reviews = loadReviews(product, new LoadStatistics());
+        if (reviews == null) {
+            throw new ProductManagerException("Reviews of product " + product.getId() + " could not be loaded");
+        }
+        reviews = storeReviews(reviews);
+        products.put(product, reviews);
+        for (int victim : reviewCache.miss(product.getId())) {
+            unloadReviews(victim);
+        }
+        return reviews;
+    }
+
+    /**
+     * Unloads the reviews of a product, writing them back to its review file
+     * first if they changed. Reviews that cannot be written stay loaded.
+     */
+    private void unloadReviews(int id) {
+        Lock stripe = stripe(id);
+        // Never wait for the lock of another product while holding one; a busy product is unloaded on a later miss.
+        if (!stripe.tryLock()) {
+            reviewCache.skipped();
+            return;
+        }
+        try {
+            Product product = productIndex.get(id);
+            Boolean dirty = reviewCache.evict(id);
+            if (product == null || dirty == null) {
+                return;
+            }
+            if (dirty) {
+                try {
+                    writeReviews(product, products.get(product));
+                    reviewCache.writtenBack();
+                } catch (IOException ex) {
+                    logger.log(Level.SEVERE, "Error writing reviews " + ex.getMessage(), ex);
+                    reviewCache.restore(id);
+                    return;
+                }
+            }
+            products.put(product, NOT_LOADED);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Writes back the reviews of the review cache and closes the review log,
+     * when the JVM exits.
+     */
+    private void shutdown() {
+        if (reviewCache != null) {
+            writeBackReviews();
+        }
+        if (reviewLog != null) {
+            try {
+                reviewLog.close();
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Error closing review log " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Writes back the changed reviews that are still loaded, so no reviews
+     * are lost when the JVM exits.
+     */
+    private void writeBackReviews() {
+        for (int id : reviewCache.getDirty()) {
+            Lock stripe = stripe(id);
+            try {
+                readLock.lock();
+                stripe.lock();
+                Product product = productIndex.get(id);
+                List<Review> reviews = product != null ? products.get(product) : NOT_LOADED;
+                if (reviews != NOT_LOADED) {
+                    writeReviews(product, reviews);
+                    reviewCache.clean(id);
+                }
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Error writing reviews " + ex.getMessage(), ex);
+            } finally {
+                stripe.unlock();
+                readLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes all reviews of a product to its review file in the data folder,
+     * replacing the file in one step.
+     */
+    private void writeReviews(Product product, List<Review> reviews) throws IOException {
+        Path file = dataFolder.resolve(MessageFormat.format(setting("reviews.data.file"), product.getId()));
+        Path newFile = file.resolveSibling(file.getFileName() + ".new");
+        MessageFormat format = reviewFormat.get();
+        try (BufferedWriter out = Files.newBufferedWriter(newFile, StandardCharsets.UTF_8)) {
+            for (Review review : reviews) {
+                // The loader reads an empty field as empty comments, MessageFormat would write null as "null".
+                out.write(format.format(new Object[]{review.getRating().ordinal(),
+                    review.getComments() != null ? review.getComments() : ""}));
+                out.newLine();
+            }
+        }
+        Files.move(newFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a setting of the configuration. A system property named
+     * {@code labs.file.} followed by the key overrides the value of
+     * {@code config.properties}, for example
+     * {@code -Dlabs.file.startup.mode=snapshot}.
+     */
+    private String setting(String key) {
+        return System.getProperty("labs.file." + key, config.getString(key));
+    }
+
+    private static ForkJoinPool createQueryPool(int threads) {
+        return threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    /**
+     * Applies an operation to a stream of all products. The stream is
+     * parallel and runs on the query pool when parallel queries are enabled
+     * and the catalogue reaches the parallel threshold, otherwise it is
+     * sequential and runs on the calling thread.
+     */
+    private <T> T overAllProducts(Function<Stream<Product>, T> operation) throws ProductManagerException {
+        if (queryPool == null || productIndex.size() < parallelThreshold) {
+            return operation.apply(productIndex.values().stream());
+        }
+        try {
+            return queryPool.submit(() -> operation.apply(productIndex.values().parallelStream())).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ProductManagerException("Interrupted while reading products", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new ProductManagerException("Error reading products " + ex.getMessage(), ex);
+        }
+    }
+
+    private Lock stripe(int id) {
+        return stripes[Math.floorMod(id, stripes.length)];
+    }
+
+    /**
+     * Reads a product and its reviews from the mapped snapshot into the
+     * {@code products} map, unless another thread did so already.
+     *
+     * @param id the product id
+     * @return the product, or null if there is no product with this id
+     */
+    private Product takeProduct(int id) {
+        Lock stripe = stripe(id);
+        try {
+            readLock.lock();
+            stripe.lock();
+            Product product = productIndex.get(id);
+            MappedSnapshot mapped = snapshot;
+            if (product == null && mapped != null) {
+                product = takeProduct(mapped, id);
+                if (mapped.isEmpty()) {
+                    snapshot = null;
+                }
+            }
+            return product;
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error reading snapshot " + ex.getMessage(), ex);
+            return null;
+        } finally {
+            stripe.unlock();
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Moves a product from the mapped snapshot to the {@code products} map and
+     * the indexes. The caller holds the lock for the product.
+     */
+    private Product takeProduct(MappedSnapshot mapped, int id) throws IOException {
+        Product product = mapped.take(id, products);
+        if (product != null) {
+            if (columnReviews) {
+                products.computeIfPresent(product, (key, reviews) -> storeReviews(reviews));
+            }
+            indexProduct(product);
         }
         return product;
     }
 
+    /**
+     * Reads all products left in the mapped snapshot into the
+     * {@code products} map, before operations that go over all products.
+     */
+    private void takeAllProducts() {
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            writeLock.lock();
+            if (snapshot != null) {
+                for (int id : snapshot.ids()) {
+                    takeProduct(snapshot, id);
+                }
+                snapshot = null;
+            }
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error reading snapshot " + ex.getMessage(), ex);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
     private void dumpData() {
+        takeAllProducts();
         try {
+            writeLock.lock();
             // You could also use Files.createDirectories, that also creates all parent-folders that does not exist yet.
             // Then the check on existence would not be necessary.
             if (Files.notExists(tempFolder)) {
                 Files.createDirectory(tempFolder);
             }
-            Path tempFile = tempFolder.resolve(MessageFormat.format(config.getString("temp.file"), Instant.now()));
-            try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(tempFile, StandardOpenOption.CREATE))) {
-                System.out.println("Dump products to " + tempFile.getFileName());
-                out.writeObject(products);
+            Path tempFile = tempFolder.resolve(MessageFormat.format(setting("temp.file"), Instant.now()));
+            if (binarySnapshot) {
+                try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    System.out.println("Dump products to " + tempFile.getFileName());
+                    ProductSnapshot.write(out, products);
+                }
+            } else {
+                try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(tempFile, StandardOpenOption.CREATE))) {
+                    System.out.println("Dump products to " + tempFile.getFileName());
+                    out.writeObject(products);
 //                products = new HashMap<>();
+                }
             }
 
         } catch (IOException ex) {
             logger.log(Level.SEVERE, "Error dumping data " + ex.getMessage(), ex);
 
+        } finally {
+            writeLock.unlock();
         }
     }
 
@@ -204,9 +640,15 @@ public class ProductFileManager implements ProductManager {
         try {
             Path tempFile = Files.list(tempFolder)
                     .filter(path -> path.getFileName().toString().endsWith(".tmp")).findFirst().orElseThrow();
-            try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(tempFile, StandardOpenOption.DELETE_ON_CLOSE))) {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE)) {
                 System.out.println("Read projects from " + tempFile.getFileName());
-                products = (HashMap) in.readObject();
+                // Snapshots and serialized data are told apart by their header, whatever the current snapshot.format.
+                if (ProductSnapshot.isSnapshot(channel)) {
+                    replaceProducts(ProductSnapshot.read(channel));
+                } else {
+                    ObjectInputStream in = new ObjectInputStream(Channels.newInputStream(channel));
+                    replaceProducts((Map<Product, List<Review>>) in.readObject());
+                }
             }
         } catch (Exception ex) {
             logger.log(Level.SEVERE, "Error reading data " + ex.getMessage(), ex);
@@ -215,28 +657,163 @@ public class ProductFileManager implements ProductManager {
 
     }
 
-    private void loadAllData() {
+    /**
+     * Maps the snapshot written at an earlier start, unless the data folder
+     * changed since. Otherwise loads the data folder and writes a new snapshot
+     * for the next start.
+     * <br>
+     * Only the modification time of the data folder itself is compared. It
+     * changes when data files are added, removed or replaced, but not when a
+     * data file is edited in place.
+     */
+    private void loadSnapshot() {
+        try {
+            if (Files.exists(snapshotFile) && (Files.notExists(dataFolder)
+                    || Files.getLastModifiedTime(snapshotFile).compareTo(Files.getLastModifiedTime(dataFolder)) >= 0)) {
+                MappedSnapshot mapped;
+                try (FileChannel channel = FileChannel.open(snapshotFile)) {
+                    mapped = new MappedSnapshot(channel);
+                }
+                logger.log(Level.INFO, "Mapped " + mapped.size() + " products from " + snapshotFile.getFileName());
+                snapshot = mapped.isEmpty() ? null : mapped;
+                return;
+            }
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Error mapping snapshot " + ex.getMessage(), ex);
+        }
+        loadAllData();
+        writeSnapshot();
+    }
+
+    private void writeSnapshot() {
+        Path newFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".new");
+        try {
+            Files.createDirectories(snapshotFile.getParent());
+            try (FileChannel out = FileChannel.open(newFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ProductSnapshot.write(out, products);
+            }
+            // Replace the previous snapshot in one step, so a next start never maps a partly written file.
+            Files.move(newFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error writing snapshot " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Opens the review log and replays the logged reviews on top of the loaded
+     * data.
+     *
+     * @return the review log, or null if reviews are not logged
+     */
+    private ReviewLog openReviewLog() {
+        String sync = setting("review.log.sync");
+        if (sync.equals("off")) {
+            return null;
+        }
         try {
-            products = Files.list(dataFolder)
-                    .filter(file -> file.getFileName().toString().startsWith("product"))
-                    .map(file -> loadProduct(file))
-                    .filter(product -> product != null)
-                    .collect(Collectors.toMap(product -> product,
-                            product -> loadReviews(product))
-                    );
+            Files.createDirectories(tempFolder);
+            return new ReviewLog(tempFolder.resolve(setting("review.log.file")),
+                    ReviewLog.Sync.valueOf(sync.toUpperCase()),
+                    Long.parseLong(setting("review.log.interval")),
+                    (id, rating, comments) -> {
+                        try {
+                            reviewProduct(findProduct(id), rating, comments);
+                        } catch (ProductManagerException ex) {
+                            logger.log(Level.WARNING, "Error replaying review " + ex.getMessage());
+                        }
+                    });
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error opening review log " + ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    private void loadAllData() {
+        LoadStatistics statistics = new LoadStatistics();
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dataFolder)) {
+            files = list.filter(file -> file.getFileName().toString().startsWith("product"))
+                    .collect(Collectors.toList());
         } catch (IOException ex) {
             logger.log(Level.SEVERE, "Error loading data " + ex.getMessage(), ex);
+            return;
+        }
+        Map<Product, List<Review>> loaded;
+        if (loadThreads > 1) {
+            // A dedicated pool bounds the number of loader threads and keeps the common pool free.
+            ForkJoinPool pool = new ForkJoinPool(loadThreads);
+            try {
+                loaded = pool.submit(() -> loadProducts(files.parallelStream(), statistics)).get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                logger.log(Level.SEVERE, "Loading data interrupted, keeping the current products", ex);
+                return;
+            } catch (ExecutionException ex) {
+                // Keep the current products rather than replacing them with a partial load.
+                logger.log(Level.SEVERE, "Error loading data " + ex.getMessage(), ex);
+                return;
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            loaded = loadProducts(files.stream(), statistics);
+        }
+        replaceProducts(loaded);
+        logger.log(Level.INFO, "Loaded " + products.size() + " products: " + statistics);
+    }
+
+    private Map<Product, List<Review>> loadProducts(Stream<Path> files, LoadStatistics statistics) {
+        return files.map(file -> loadProduct(file, statistics))
+                .filter(product -> product != null)
+                .collect(Collectors.toMap(product -> product,
+                        product -> reviewCache != null ? NOT_LOADED : loadReviews(product, statistics))
+                );
+    }
+
+    /**
+     * Replaces all products and reviews and rebuilds the id index. Rating
+     * totals and mapped snapshot products of the previous content are
+     * dropped.
+     */
+    private void replaceProducts(Map<Product, List<Review>> loaded) {
+        try {
+            writeLock.lock();
+            snapshot = null;
+            ratingTotals.clear();
+            products.clear();
+            comments = new CommentArena(dictionarySize);
+            loaded.forEach((product, reviews) -> products.put(product, storeReviews(reviews)));
+            productIndex.clear();
+            loaded.keySet().forEach(product -> productIndex.put(product.getId(), product));
+            queryIndexes.clear();
+            productIndex.values().forEach(queryIndexes::add);
+            discountTotals.clear();
+            if (reviewCache != null) {
+                reviewCache.clear();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
+    /**
+     * Converts reviews to the configured {@code review.store}: columns, or
+     * the list itself for review objects.
+     */
+    private List<Review> storeReviews(List<Review> reviews) {
+        if (!columnReviews || reviews == NOT_LOADED) {
+            return reviews;
         }
+        // The shared arena only grows, so reviews that are unloaded again must not leave their comments in it.
+        return new ReviewColumns(reviewCache != null ? CommentArena.small() : comments, reviews);
     }
 
-    private Product loadProduct(Path file) {
+    private Product loadProduct(Path file, LoadStatistics statistics) {
         Product product = null;
         if (Files.exists(file)) {
             try {
                 //  Alternative for StandardCharsets.UTF_8: Charset.forName("UTF-8"). However, again this relies on a hardcoded string.
-                product = parseProduct(
-                        Files.lines(dataFolder.resolve(file), StandardCharsets.UTF_8).findFirst().orElseThrow());
+                product = parseProduct(readLines(dataFolder.resolve(file), statistics).findFirst().orElseThrow());
             } catch (IOException ex) {
                 logger.log(Level.WARNING, "Error loading product " + ex.getMessage());
             }
@@ -245,15 +822,15 @@ public class ProductFileManager implements ProductManager {
         return product;
     }
 
-    private List<Review> loadReviews(Product product) {
+    private List<Review> loadReviews(Product product, LoadStatistics statistics) {
         List<Review> reviews = null;
-        Path file = dataFolder.resolve(MessageFormat.format(config.getString("reviews.data.file"), product.getId()));
+        Path file = dataFolder.resolve(MessageFormat.format(setting("reviews.data.file"), product.getId()));
         if (Files.notExists(file)) {
             reviews = new ArrayList<>();
         } else {
             try {
                 //  Alternative for StandardCharsets.UTF_8: Charset.forName("UTF-8"). However, again this relies on a hardcoded string.
-                reviews = Files.lines(file, StandardCharsets.UTF_8)
+                reviews = readLines(file, statistics)
                         .map(line -> parseReview(line))
                         .filter(review -> review != null)
                         .collect(Collectors.toList());
@@ -266,36 +843,71 @@ public class ProductFileManager implements ProductManager {
 
     }
 
+    /**
+     * Reads a data file in one go, so no file handle stays open while the
+     * lines are parsed.
+     */
+    private Stream<String> readLines(Path file, LoadStatistics statistics) throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        statistics.fileRead(content.length);
+        return new String(content, StandardCharsets.UTF_8).lines();
+    }
+
     private Review parseReview(String text) {
         Review review = null;
         try {
-            Object[] values = reviewFormat.parse(text);
-            review = new Review(Rateable.convert(Integer.parseInt((String) values[0])),
-                    (String) values[1]);
+            if (splitFields) {
+                FieldSplitter fields = reviewFields.get();
+                fields.split(text);
+                review = new Review(Rateable.convert(fields.getInt(0)),
+                        commentDictionary != null ? fields.getString(1, commentDictionary) : fields.getString(1));
+            } else {
+                Object[] values = reviewFormat.get().parse(text);
+                review = new Review(Rateable.convert(Integer.parseInt((String) values[0])),
+                        canonical((String) values[1]));
+            }
         } catch (ParseException | NumberFormatException ex) {
             logger.log(Level.WARNING, "Error parsing review " + text + " " + ex.getMessage());
         }
         return review;
     }
 
+    private String canonical(String comments) {
+        return commentDictionary != null && comments != null ? commentDictionary.canonical(comments) : comments;
+    }
+
     private Product parseProduct(String text) {
         Product product = null;
         try {
-            Object[] values = productFormat.parse(text);
-            String type = (String) values[0];
-            int id = Integer.parseInt((String) values[1]);
-            String name = (String) values[2];
-            BigDecimal price = BigDecimal.valueOf(Double.parseDouble((String) values[3]));
-            Rating rating = Rateable.convert(Integer.parseInt((String) values[4]));
-            switch (type) {
-                case "D":
+            if (splitFields) {
+                FieldSplitter fields = productFields.get();
+                fields.split(text);
+                int id = fields.getInt(1);
+                String name = fields.getString(2);
+                BigDecimal price = fields.getDecimal(3);
+                Rating rating = Rateable.convert(fields.getInt(4));
+                if (fields.isField(0, "D")) {
                     product = new Drink(id, name, price, rating);
-                    break;
-                case "F":
-                    LocalDate bestBefore = LocalDate.parse((String) values[5]);
-                    product = new Food(id, name, price, rating, bestBefore);
+                } else if (fields.isField(0, "F")) {
+                    product = new Food(id, name, price, rating, fields.getDate(5));
+                }
+            } else {
+                Object[] values = productFormat.get().parse(text);
+                String type = (String) values[0];
+                int id = Integer.parseInt((String) values[1]);
+                String name = (String) values[2];
+                BigDecimal price = BigDecimal.valueOf(Double.parseDouble((String) values[3]));
+                Rating rating = Rateable.convert(Integer.parseInt((String) values[4]));
+                switch (type) {
+                    case "D":
+                        product = new Drink(id, name, price, rating);
+                        break;
+                    case "F":
+                        LocalDate bestBefore = LocalDate.parse((String) values[5]);
+                        product = new Food(id, name, price, rating, bestBefore);
+                }
             }
-        } catch (ParseException | NumberFormatException | DateTimeParseException ex) {
+        } catch (ParseException | NumberFormatException | ArithmeticException | DateTimeParseException ex) {
             logger.log(Level.WARNING, "Error parsing product " + text + " " + ex.getMessage());
         }
         return product;
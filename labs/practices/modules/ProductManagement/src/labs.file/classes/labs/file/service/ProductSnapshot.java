@@ -0,0 +1,438 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import labs.pm.data.Drink;
+import labs.pm.data.Food;
+import labs.pm.data.Product;
+import labs.pm.data.Rating;
+import labs.pm.data.Review;
+
+/**
+ * {@code ProductSnapshot} writes and reads all products and reviews in a
+ * compact binary format, as an alternative to Java serialization of the
+ * products map.
+ * <br>
+ * A snapshot consists of:
+ * <ul>
+ * <li>a header: magic number, format version, product count, review count
+ * and the file position of the review section</li>
+ * <li>a product section: per product its type, id, name, price, rating, best
+ * before day (food only), number of reviews and the position of its first
+ * review within the review section</li>
+ * <li>a review section: the reviews of all products, in product section
+ * order, each as rating and comments</li>
+ * </ul>
+ * Strings are written as UTF-8 with a length prefix. Null comments have a
+ * length of -1. Data goes through one large direct buffer per snapshot.
+ * <br>
+ * The review positions allow a {@link MappedSnapshot} to read the reviews of
+ * a single product without going through the other products. Version 1
+ * snapshots, without review positions, can still be read but not mapped.
+ * <br>
+ * Corrupt data is reported as a {@code StreamCorruptedException} or, for a
+ * truncated file, an {@code EOFException}.
+ *
+ * @author redhat
+ */
+class ProductSnapshot {
+
+    /**
+     * "PMSN", distinguishes snapshots from serialized data, which starts with
+     * 0xACED.
+     */
+    static final int MAGIC = 0x504D534E;
+    static final short VERSION = 2;
+    static final short VERSION_WITHOUT_POSITIONS = 1;
+    static final int HEADER_SIZE = Integer.BYTES + Short.BYTES * 2 + Integer.BYTES + Long.BYTES * 2;
+
+    static final int REVIEW_SECTION_POSITION = HEADER_SIZE - Long.BYTES;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final byte DRINK = 'D';
+    private static final byte FOOD = 'F';
+    private static final Rating[] RATINGS = Rating.values();
+    private static final int NULL_LENGTH = -1;
+
+    private ProductSnapshot() {
+    }
+
+    /**
+     * Checks the magic number at the start of a file, without changing the
+     * position of the channel.
+     *
+     * @param channel an open file
+     * @return true if the file is a snapshot
+     * @throws IOException if the file cannot be read
+     */
+    static boolean isSnapshot(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+        return channel.read(magic, 0) == Integer.BYTES && magic.getInt(0) == MAGIC;
+    }
+
+    /**
+     * Writes a snapshot from the start of an empty file.
+     *
+     * @param channel an empty file, open for writing
+     * @param products products and their reviews
+     * @throws IOException if the file cannot be written
+     */
+    static void write(FileChannel channel, Map<Product, List<Review>> products) throws IOException {
+        Writer out = new Writer(channel);
+        out.ensure(HEADER_SIZE);
+        out.buffer.putInt(MAGIC)
+                .putShort(VERSION)
+                .putShort((short) 0)
+                .putInt(products.size())
+                .putLong(products.values().stream().mapToLong(List::size).sum())
+                .putLong(0);
+        // Both sections follow the iteration order of the same map.
+        long reviewPosition = 0;
+        for (Map.Entry<Product, List<Review>> entry : products.entrySet()) {
+            Product product = entry.getKey();
+            List<Review> reviews = entry.getValue();
+            boolean food = product instanceof Food;
+            byte[] unscaled = product.getPrice().unscaledValue().toByteArray();
+            out.ensure(1 + Integer.BYTES);
+            out.buffer.put(food ? FOOD : DRINK).putInt(product.getId());
+            out.putString(product.getName());
+            out.ensure(Integer.BYTES + 1 + unscaled.length + 1 + Long.BYTES + Integer.BYTES + Long.BYTES);
+            out.buffer.putInt(product.getPrice().scale())
+                    .put((byte) unscaled.length)
+                    .put(unscaled)
+                    .put((byte) product.getRating().ordinal());
+            if (food) {
+                out.buffer.putLong(product.getBestBefore().toEpochDay());
+            }
+            out.buffer.putInt(reviews.size()).putLong(reviewPosition);
+            for (Review review : reviews) {
+                reviewPosition += 1 + Integer.BYTES + utf8Length(review.getComments());
+            }
+        }
+        long reviewSection = out.flush();
+        for (List<Review> reviews : products.values()) {
+            for (Review review : reviews) {
+                out.ensure(1);
+                out.buffer.put((byte) review.getRating().ordinal());
+                out.putString(review.getComments());
+            }
+        }
+        out.flush();
+        channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, reviewSection), REVIEW_SECTION_POSITION);
+    }
+
+    static HashMap<Product, List<Review>> read(ReadableByteChannel channel) throws IOException {
+        Reader in = new Reader(channel);
+        int productCount = readHeader(in);
+        Product[] products = new Product[productCount];
+        int[] reviewCounts = new int[productCount];
+        for (int i = 0; i < productCount; i++) {
+            products[i] = readProduct(in);
+            reviewCounts[i] = in.getInt();
+            if (in.version != VERSION_WITHOUT_POSITIONS) {
+                in.getLong();
+            }
+        }
+        HashMap<Product, List<Review>> result = new HashMap<>();
+        for (int i = 0; i < productCount; i++) {
+            result.put(products[i], readReviews(in, reviewCounts[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Checks the header and skips to the product section.
+     *
+     * @return the number of products
+     */
+    static int readHeader(Reader in) throws IOException {
+        in.ensure(Integer.BYTES + Short.BYTES * 2);
+        if (in.buffer.getInt() != MAGIC) {
+            throw new StreamCorruptedException("Not a product snapshot");
+        }
+        short version = in.buffer.getShort();
+        if (version != VERSION && version != VERSION_WITHOUT_POSITIONS) {
+            throw new StreamCorruptedException("Unsupported product snapshot version " + version);
+        }
+        in.version = version;
+        in.buffer.getShort();
+        int productCount = in.getInt();
+        if (productCount < 0) {
+            throw new StreamCorruptedException("Invalid product count " + productCount + " in product snapshot");
+        }
+        in.getLong();
+        if (version != VERSION_WITHOUT_POSITIONS) {
+            in.getLong();
+        }
+        return productCount;
+    }
+
+    /**
+     * Reads a product record, up to its review count.
+     */
+    static Product readProduct(Reader in) throws IOException {
+        in.ensure(1 + Integer.BYTES);
+        byte type = type(in.buffer.get());
+        int id = in.buffer.getInt();
+        String name = in.getString();
+        in.ensure(Integer.BYTES + 1);
+        int scale = in.buffer.getInt();
+        int length = in.buffer.get() & 0xFF;
+        if (length == 0) {
+            throw new StreamCorruptedException("Invalid price in product snapshot");
+        }
+        BigDecimal price = new BigDecimal(new BigInteger(in.getBytes(length)), scale);
+        in.ensure(1);
+        Rating rating = rating(in.buffer.get());
+        if (type == FOOD) {
+            in.ensure(Long.BYTES);
+            return new Food(id, name, price, rating, LocalDate.ofEpochDay(in.buffer.getLong()));
+        }
+        return new Drink(id, name, price, rating);
+    }
+
+    /**
+     * Skips a product record, up to its review count.
+     *
+     * @return the product id
+     */
+    static int skipProduct(Reader in) throws IOException {
+        in.ensure(1 + Integer.BYTES);
+        byte type = type(in.buffer.get());
+        int id = in.buffer.getInt();
+        in.skip(in.getLength());
+        in.ensure(Integer.BYTES + 1);
+        in.buffer.getInt();
+        in.skip((in.buffer.get() & 0xFF) + 1 + (type == FOOD ? Long.BYTES : 0));
+        return id;
+    }
+
+    static List<Review> readReviews(Reader in, int count) throws IOException {
+        if (count < 0) {
+            throw new StreamCorruptedException("Invalid review count " + count + " in product snapshot");
+        }
+        List<Review> reviews = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            in.ensure(1);
+            Rating rating = rating(in.buffer.get());
+            reviews.add(new Review(rating, in.getNullableString()));
+        }
+        return reviews;
+    }
+
+    private static byte type(byte type) throws StreamCorruptedException {
+        if (type != FOOD && type != DRINK) {
+            throw new StreamCorruptedException("Invalid product type " + type + " in product snapshot");
+        }
+        return type;
+    }
+
+    private static Rating rating(byte ordinal) throws StreamCorruptedException {
+        if (ordinal < 0 || ordinal >= RATINGS.length) {
+            throw new StreamCorruptedException("Invalid rating " + ordinal + " in product snapshot");
+        }
+        return RATINGS[ordinal];
+    }
+
+    /**
+     * Counts the bytes of a string in UTF-8, the way
+     * {@code String.getBytes(UTF_8)} encodes it, without encoding it.
+     */
+    private static int utf8Length(String text) {
+        if (text == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are replaced by '?'
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static class Writer {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private long written;
+
+        private Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int size) throws IOException {
+            if (buffer.remaining() < size) {
+                flush();
+            }
+        }
+
+        private void putString(String text) throws IOException {
+            if (text == null) {
+                ensure(Integer.BYTES);
+                buffer.putInt(NULL_LENGTH);
+                return;
+            }
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            ensure(Integer.BYTES);
+            buffer.putInt(bytes.length);
+            for (int offset = 0; offset < bytes.length;) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        /**
+         * @return the number of bytes written so far
+         */
+        private long flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+            return written;
+        }
+    }
+
+    /**
+     * Reads snapshot data, either from a channel through a direct buffer or
+     * straight from a buffer that holds the whole snapshot.
+     */
+    static class Reader {
+
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer;
+        private short version;
+
+        private Reader(ReadableByteChannel channel) {
+            this.channel = channel;
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.flip();
+        }
+
+        Reader(ByteBuffer buffer) {
+            this.channel = null;
+            this.buffer = buffer;
+        }
+
+        int position() {
+            return buffer.position();
+        }
+
+        short version() {
+            return version;
+        }
+
+        private void ensure(int size) throws IOException {
+            if (buffer.remaining() < size) {
+                if (channel == null) {
+                    throw new EOFException("Unexpected end of product snapshot");
+                }
+                buffer.compact();
+                while (buffer.position() < size) {
+                    if (channel.read(buffer) < 0) {
+                        throw new EOFException("Unexpected end of product snapshot");
+                    }
+                }
+                buffer.flip();
+            }
+        }
+
+        int getInt() throws IOException {
+            ensure(Integer.BYTES);
+            return buffer.getInt();
+        }
+
+        long getLong() throws IOException {
+            ensure(Long.BYTES);
+            return buffer.getLong();
+        }
+
+        void skip(int size) throws IOException {
+            for (int remaining = size; remaining > 0;) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), remaining);
+                buffer.position(buffer.position() + length);
+                remaining -= length;
+            }
+        }
+
+        private byte[] getBytes(int size) throws IOException {
+            byte[] bytes = new byte[size];
+            for (int offset = 0; offset < size;) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), size - offset);
+                buffer.get(bytes, offset, length);
+                offset += length;
+            }
+            return bytes;
+        }
+
+        private int getLength() throws IOException {
+            int length = getInt();
+            if (length < 0) {
+                throw new StreamCorruptedException("Invalid string length " + length + " in product snapshot");
+            }
+            return length;
+        }
+
+        private String getString() throws IOException {
+            return new String(getBytes(getLength()), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Reads a string that may be null, as review comments are.
+         */
+        private String getNullableString() throws IOException {
+            int length = getInt();
+            if (length == NULL_LENGTH) {
+                return null;
+            }
+            if (length < 0) {
+                throw new StreamCorruptedException("Invalid string length " + length + " in product snapshot");
+            }
+            return new String(getBytes(length), StandardCharsets.UTF_8);
+        }
+    }
+}
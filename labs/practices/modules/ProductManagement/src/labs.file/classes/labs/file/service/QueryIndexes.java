@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.StreamSupport;
+import labs.pm.data.Food;
+import labs.pm.data.Product;
+import labs.pm.data.Rating;
+import labs.pm.service.ProductQuery;
+
+/**
+ * {@code QueryIndexes} keeps the product ids sorted by price and best before
+ * date, and grouped by rating and product type, to answer a
+ * {@link ProductQuery} without going over all products.
+ * <br>
+ * Only the best before date of {@code Food} is fixed. Other products are best
+ * before today, so they match a best before range that includes today.
+ * <br>
+ * The indexes only hold ids. Callers look up the current product and test
+ * the whole query on it, so an index that is a moment behind a concurrent
+ * change never returns a wrong product.
+ *
+ * @author redhat
+ */
+class QueryIndexes {
+
+    private final NavigableSet<Key> prices = new ConcurrentSkipListSet<>();
+    private final NavigableSet<Key> bestBeforeDates = new ConcurrentSkipListSet<>();
+    private final Set<Integer> bestBeforeToday = ConcurrentHashMap.newKeySet();
+    private final Map<Rating, Set<Integer>> ratings = new EnumMap<>(Rating.class);
+    private final Map<Class<?>, Set<Integer>> types = new ConcurrentHashMap<>();
+
+    /**
+     * An indexed value and a product id, so products with the same value
+     * have their own entries.
+     */
+    private static class Key implements Comparable<Key> {
+
+        private final long value;
+        private final int id;
+
+        private Key(long value, int id) {
+            this.value = value;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int compare = Long.compare(value, other.value);
+            return compare != 0 ? compare : Integer.compare(id, other.id);
+        }
+    }
+
+    QueryIndexes() {
+        for (Rating rating : Rating.values()) {
+            ratings.put(rating, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    void add(Product product) {
+        int id = product.getId();
+        prices.add(new Key(product.getPriceCents(), id));
+        if (product instanceof Food) {
+            bestBeforeDates.add(new Key(product.getBestBefore().toEpochDay(), id));
+        } else {
+            bestBeforeToday.add(id);
+        }
+        ratings.get(product.getRating()).add(id);
+        types.computeIfAbsent(product.getClass(), type -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+
+    /**
+     * Moves a product that got a new rating to the bucket of that rating.
+     */
+    void rerate(Product previous, Product product) {
+        if (previous.getRating() != product.getRating()) {
+            ratings.get(previous.getRating()).remove(previous.getId());
+            ratings.get(product.getRating()).add(product.getId());
+        }
+    }
+
+    void clear() {
+        prices.clear();
+        bestBeforeDates.clear();
+        bestBeforeToday.clear();
+        ratings.values().forEach(Set::clear);
+        types.clear();
+    }
+
+    /**
+     * Selects the ids of the products that may match a query, from the
+     * index with the fewest entries for its conditions.
+     *
+     * @param query the query
+     * @param today the current date
+     * @return the candidate ids, or null if the query has no indexed
+     * condition
+     */
+    Iterable<Integer> candidates(ProductQuery query, LocalDate today) {
+        Iterable<Integer> best = null;
+        long bestSize = Long.MAX_VALUE;
+        if (query.getRatings() != null) {
+            List<Set<Integer>> parts = new ArrayList<>();
+            query.getRatings().forEach(rating -> parts.add(ratings.get(rating)));
+            long size = parts.stream().mapToLong(Set::size).sum();
+            if (size < bestSize) {
+                best = concat(parts);
+                bestSize = size;
+            }
+        }
+        if (query.getType() != null) {
+            List<Set<Integer>> parts = new ArrayList<>();
+            types.forEach((type, ids) -> {
+                if (query.getType().isAssignableFrom(type)) {
+                    parts.add(ids);
+                }
+            });
+            long size = parts.stream().mapToLong(Set::size).sum();
+            if (size < bestSize) {
+                best = concat(parts);
+                bestSize = size;
+            }
+        }
+        if (query.getMinPriceCents() != null || query.getMaxPriceCents() != null) {
+            NavigableSet<Key> range = range(prices, query.getMinPriceCents(), query.getMaxPriceCents());
+            long size = count(range, bestSize);
+            if (size < bestSize) {
+                best = ids(range);
+                bestSize = size;
+            }
+        }
+        if (query.getBestBeforeFrom() != null || query.getBestBeforeTo() != null) {
+            LocalDate from = query.getBestBeforeFrom();
+            LocalDate to = query.getBestBeforeTo();
+            NavigableSet<Key> range = range(bestBeforeDates,
+                    from == null ? null : from.toEpochDay(),
+                    to == null ? null : to.toEpochDay() + 1);
+            boolean includesToday = (from == null || !today.isBefore(from)) && (to == null || !today.isAfter(to));
+            long size = count(range, bestSize) + (includesToday ? bestBeforeToday.size() : 0);
+            if (size < bestSize) {
+                List<Iterable<Integer>> parts = new ArrayList<>();
+                parts.add(ids(range));
+                if (includesToday) {
+                    parts.add(bestBeforeToday);
+                }
+                best = concat(parts);
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Gets the entries with a value from {@code from} up to but not including
+     * {@code to}.
+     */
+    private static NavigableSet<Key> range(NavigableSet<Key> index, Long from, Long to) {
+        if (from == null) {
+            return index.headSet(new Key(to, Integer.MIN_VALUE), false);
+        }
+        if (to == null) {
+            return index.tailSet(new Key(from, Integer.MIN_VALUE), true);
+        }
+        if (from >= to) {
+            return index.subSet(new Key(from, Integer.MIN_VALUE), true, new Key(from, Integer.MIN_VALUE), false);
+        }
+        return index.subSet(new Key(from, Integer.MIN_VALUE), true, new Key(to, Integer.MIN_VALUE), false);
+    }
+
+    /**
+     * Counts the entries of a range, but stops at {@code limit}, as the size
+     * of a range is only needed if it is smaller than another candidate.
+     */
+    private static long count(Collection<?> range, long limit) {
+        long count = 0;
+        for (Object entry : range) {
+            if (++count >= limit) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    private static Iterable<Integer> ids(NavigableSet<Key> range) {
+        return () -> range.stream().map(key -> key.id).iterator();
+    }
+
+    private static Iterable<Integer> concat(List<? extends Iterable<Integer>> parts) {
+        return () -> parts.stream()
+                .flatMap(part -> StreamSupport.stream(part.spliterator(), false))
+                .iterator();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.util.List;
+import labs.pm.data.Rateable;
+import labs.pm.data.Rating;
+import labs.pm.data.Review;
+
+/**
+ * {@code RatingTotals} keeps a running sum and count of the review ratings of
+ * one product, so the average rating can be updated for each new review
+ * without streaming over all reviews again.
+ *
+ * @author redhat
+ */
+class RatingTotals {
+
+    private long sum;
+    private int count;
+
+    RatingTotals(List<Review> reviews) {
+        reviews.forEach(review -> add(review.getRating()));
+    }
+
+    void add(Rating rating) {
+        sum += rating.ordinal();
+        count++;
+    }
+
+    /**
+     * Calculates the average rating, rounded the same way as
+     * {@code Math.round} on the average of all review ordinals.
+     *
+     * @return the average rating, or {@code NOT_RATED} without reviews
+     */
+    Rating getAverage() {
+        return Rateable.convert((int) Math.round(count == 0 ? 0 : (double) sum / count));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code ReviewCache} keeps track of the products whose reviews are loaded,
+ * in least recently used order, and counts hits, misses, evictions,
+ * write-backs and products that could not be evicted.
+ * <br>
+ * The cache does not hold the reviews itself; it only decides which products
+ * to unload. The caller loads, unloads and marks a product dirty while it
+ * holds the lock of that product, so whether a product is in the cache always
+ * matches whether its reviews are loaded.
+ *
+ * @author redhat
+ */
+class ReviewCache {
+
+    private final int capacity;
+    /**
+     * Loaded products in access order, each with a flag that tells if its
+     * reviews changed since they were loaded.
+     */
+    private final LinkedHashMap<Integer, Boolean> loaded = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+    private long skipped;
+
+    ReviewCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Records an access to the reviews of a product that are loaded.
+     */
+    synchronized void hit(int id) {
+        loaded.get(id);
+        hits++;
+    }
+
+    /**
+     * Records that the reviews of a product were loaded on access.
+     *
+     * @return the least recently used products beyond the capacity, to be
+     * unloaded by the caller
+     */
+    synchronized List<Integer> miss(int id) {
+        misses++;
+        loaded.put(id, false);
+        List<Integer> victims = new ArrayList<>();
+        Iterator<Integer> eldest = loaded.keySet().iterator();
+        for (int excess = loaded.size() - capacity; excess > 0 && eldest.hasNext(); excess--) {
+            int victim = eldest.next();
+            if (victim != id) {
+                victims.add(victim);
+            }
+        }
+        return victims;
+    }
+
+    synchronized void markDirty(int id) {
+        loaded.replace(id, true);
+    }
+
+    /**
+     * Removes a product to unload.
+     *
+     * @return true if its reviews must be written back, null if the product
+     * is not in the cache
+     */
+    synchronized Boolean evict(int id) {
+        Boolean dirty = loaded.remove(id);
+        if (dirty != null) {
+            evictions++;
+        }
+        return dirty;
+    }
+
+    /**
+     * Puts back a dirty product whose reviews could not be written back, so
+     * they stay loaded.
+     */
+    synchronized void restore(int id) {
+        loaded.put(id, true);
+        evictions--;
+    }
+
+    /**
+     * Records a product that could not be unloaded because it was in use. It
+     * stays in the cache, which may then hold more than its capacity until a
+     * later miss unloads it.
+     */
+    synchronized void skipped() {
+        skipped++;
+    }
+
+    synchronized void writtenBack() {
+        writeBacks++;
+    }
+
+    synchronized List<Integer> getDirty() {
+        List<Integer> dirty = new ArrayList<>();
+        loaded.forEach((id, changed) -> {
+            if (changed) {
+                dirty.add(id);
+            }
+        });
+        return dirty;
+    }
+
+    /**
+     * Marks a loaded product clean after its reviews were written back.
+     */
+    synchronized void clean(int id) {
+        if (loaded.replace(id, false) != null) {
+            writeBacks++;
+        }
+    }
+
+    synchronized void clear() {
+        loaded.clear();
+    }
+
+    synchronized Map<String, Long> getStatistics() {
+        return Map.of("review.cache.size", (long) loaded.size(),
+                "review.cache.hits", hits,
+                "review.cache.misses", misses,
+                "review.cache.evictions", evictions,
+                "review.cache.writebacks", writeBacks,
+                "review.cache.skipped", skipped);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import labs.pm.data.Rating;
+import labs.pm.data.Review;
+
+/**
+ * {@code ReviewColumns} holds the reviews of one product in columns: the
+ * ratings in a byte array and the comments as addresses in a shared
+ * {@link CommentArena}. A {@code Review} object is only created when a review
+ * is read.
+ * <br>
+ * Reviews can only be appended. Appends and {@link #view() views} must be
+ * guarded by the same lock. A view shares the arrays, which are replaced
+ * rather than changed when they grow, so it keeps showing the reviews there
+ * were when it was taken without copying them.
+ * <br>
+ * Reading is slower than from a list of {@code Review} objects, as every
+ * {@code get} decodes the UTF-8 comment into a new {@code String}.
+ * <br>
+ * The list is serialised as an {@code ArrayList} of reviews.
+ *
+ * @author redhat
+ */
+final class ReviewColumns extends AbstractList<Review> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final Rating[] RATINGS = Rating.values();
+    private static final int MIN_CAPACITY = 4;
+
+    private final transient CommentArena arena;
+    private transient byte[] ratings;
+    private transient long[] comments;
+    private transient int size;
+
+    ReviewColumns(CommentArena arena, List<Review> reviews) {
+        this.arena = arena;
+        ratings = new byte[reviews.size()];
+        comments = new long[reviews.size()];
+        addAll(reviews);
+    }
+
+    @Override
+    public boolean add(Review review) {
+        if (size == ratings.length) {
+            int capacity = Math.max(MIN_CAPACITY, size + (size >> 1));
+            ratings = Arrays.copyOf(ratings, capacity);
+            comments = Arrays.copyOf(comments, capacity);
+        }
+        comments[size] = arena.append(review.getComments());
+        ratings[size] = (byte) review.getRating().ordinal();
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public Review get(int index) {
+        Objects.checkIndex(index, size);
+        return new Review(RATINGS[ratings[index]], arena.read(comments[index]));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a read only view of the current reviews, which later appends
+     * do not change.
+     *
+     * @return the view
+     */
+    List<Review> view() {
+        return new View(arena, ratings, comments, size);
+    }
+
+    private Object writeReplace() {
+        return new ArrayList<>(this);
+    }
+
+    private static final class View extends AbstractList<Review> implements RandomAccess {
+
+        private final CommentArena arena;
+        private final byte[] ratings;
+        private final long[] comments;
+        private final int size;
+
+        private View(CommentArena arena, byte[] ratings, long[] comments, int size) {
+            this.arena = arena;
+            this.ratings = ratings;
+            this.comments = comments;
+            this.size = size;
+        }
+
+        @Override
+        public Review get(int index) {
+            Objects.checkIndex(index, size);
+            return new Review(RATINGS[ratings[index]], arena.read(comments[index]));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import labs.pm.data.Rating;
+
+/**
+ * {@code ReviewLog} appends each review to a log file, so reviews survive a
+ * restart without rewriting all data.
+ * <br>
+ * Each record holds the length and CRC-32 of its payload, followed by the
+ * payload: product id, rating and comments in UTF-8. Null comments are marked
+ * in the rating byte. A record that was not
+ * completely written, for instance because of a crash, is cut off when the
+ * log is opened again.
+ * <br>
+ * How appended records are forced to disk depends on the {@link Sync sync}
+ * policy.
+ *
+ * @author redhat
+ */
+class ReviewLog {
+
+    /**
+     * Policies for forcing appended records to the storage device.
+     */
+    enum Sync {
+        /**
+         * Force every record before {@code append} returns.
+         */
+        ALWAYS,
+        /**
+         * Force all records appended in the last interval at once. Writers
+         * wait in {@link ReviewLog#awaitSync(long) awaitSync} for the force
+         * that covers their record.
+         */
+        GROUP,
+        /**
+         * Leave writing to disk to the operating system.
+         */
+        OS
+    }
+
+    /**
+     * Receives the reviews read from the log when it is opened.
+     */
+    @FunctionalInterface
+    interface Replay {
+
+        void review(int id, Rating rating, String comments);
+    }
+
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES * 2;
+    private static final int PAYLOAD_HEADER_SIZE = Integer.BYTES + 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final Rating[] RATINGS = Rating.values();
+    private static final int NULL_COMMENTS = 0x80;
+
+    private static final Logger logger = Logger.getLogger(ReviewLog.class.getName());
+
+    private final FileChannel channel;
+    private final Sync sync;
+    private final ScheduledExecutorService syncService;
+    private final CRC32 crc = new CRC32();
+    private long written;
+    private long synced;
+    /**
+     * The last failed group force, or null if the last force succeeded.
+     * Writers of the records up to {@code failed} get this error; later
+     * records wait for the next force, which tries again.
+     */
+    private IOException syncError;
+    private long failed;
+
+    /**
+     * Opens the log, passes all complete records to {@code replay} and cuts
+     * off an incomplete last record.
+     *
+     * @param file the log file, created if it does not exist
+     * @param sync when to force records to disk
+     * @param interval milliseconds between forces for {@link Sync#GROUP}
+     * @param replay receives the logged reviews, in order
+     * @throws IOException if the log cannot be read
+     */
+    ReviewLog(Path file, Sync sync, long interval, Replay replay) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE), sync, interval, replay);
+    }
+
+    ReviewLog(FileChannel channel, Sync sync, long interval, Replay replay) throws IOException {
+        this.channel = channel;
+        this.sync = sync;
+        written = replay(replay);
+        synced = written;
+        if (written < channel.size()) {
+            logger.log(Level.WARNING, "Cut off incomplete review log record at " + written + " of " + channel.size() + " bytes");
+            channel.truncate(written);
+        }
+        channel.position(written);
+        if (sync == Sync.GROUP) {
+            syncService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "review-log-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncService.scheduleWithFixedDelay(this::force, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            syncService = null;
+        }
+    }
+
+    /**
+     * Appends a review to the log.
+     *
+     * @return the log position after the record, to pass to
+     * {@link #awaitSync(long) awaitSync}
+     * @throws IOException if the record cannot be written
+     */
+    synchronized long append(int id, Rating rating, String comments) throws IOException {
+        byte[] text = comments != null ? comments.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + PAYLOAD_HEADER_SIZE + text.length);
+        record.position(RECORD_HEADER_SIZE);
+        record.putInt(id).put((byte) (rating.ordinal() | (comments != null ? 0 : NULL_COMMENTS))).put(text);
+        crc.reset();
+        crc.update(record.array(), RECORD_HEADER_SIZE, record.position() - RECORD_HEADER_SIZE);
+        record.putInt(0, record.position() - RECORD_HEADER_SIZE).putInt(Integer.BYTES, (int) crc.getValue());
+        record.flip();
+        while (record.hasRemaining()) {
+            written += channel.write(record);
+        }
+        if (sync == Sync.ALWAYS) {
+            channel.force(false);
+            synced = written;
+        }
+        return written;
+    }
+
+    /**
+     * Waits until the log is forced up to a position. Only waits for
+     * {@link Sync#GROUP}, for the other policies {@code append} decides when
+     * records are durable.
+     *
+     * @param position a position returned by {@code append}
+     * @throws IOException if the log could not be forced up to the position
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void awaitSync(long position) throws IOException, InterruptedException {
+        while (sync == Sync.GROUP && synced < position) {
+            if (syncError != null && position <= failed) {
+                throw new IOException("Review log not forced " + syncError.getMessage(), syncError);
+            }
+            wait();
+        }
+    }
+
+    private void force() {
+        long position;
+        synchronized (this) {
+            if (synced == written) {
+                return;
+            }
+            position = written;
+        }
+        try {
+            // Forced outside the monitor, so appends go on while the disk is busy.
+            channel.force(false);
+            synchronized (this) {
+                synced = position;
+                syncError = null;
+                notifyAll();
+            }
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error forcing review log " + ex.getMessage(), ex);
+            // The writers waiting for this force fail; the next force tries again for the records after them.
+            synchronized (this) {
+                syncError = ex;
+                failed = position;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Stops the group sync, forces what was appended and closes the file.
+     */
+    void close() throws IOException {
+        if (syncService != null) {
+            syncService.shutdown();
+        }
+        force();
+        channel.close();
+    }
+
+    /**
+     * @return the position after the last complete record
+     */
+    private long replay(Replay replay) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.flip();
+        long position = 0;
+        while (true) {
+            buffer = fill(buffer, RECORD_HEADER_SIZE);
+            if (buffer.remaining() < RECORD_HEADER_SIZE) {
+                return position;
+            }
+            int length = buffer.getInt(buffer.position());
+            int checksum = buffer.getInt(buffer.position() + Integer.BYTES);
+            if (length < PAYLOAD_HEADER_SIZE || length > channel.size() - position - RECORD_HEADER_SIZE) {
+                return position;
+            }
+            buffer = fill(buffer, RECORD_HEADER_SIZE + length);
+            if (buffer.remaining() < RECORD_HEADER_SIZE + length) {
+                return position;
+            }
+            crc.reset();
+            crc.update(buffer.array(), buffer.arrayOffset() + buffer.position() + RECORD_HEADER_SIZE, length);
+            if ((int) crc.getValue() != checksum) {
+                return position;
+            }
+            buffer.position(buffer.position() + RECORD_HEADER_SIZE);
+            int id = buffer.getInt();
+            int value = buffer.get() & 0xFF;
+            int ordinal = value & ~NULL_COMMENTS;
+            if (ordinal >= RATINGS.length) {
+                throw new StreamCorruptedException("Invalid rating " + ordinal + " in review log at " + position);
+            }
+            Rating rating = RATINGS[ordinal];
+            String comments = (value & NULL_COMMENTS) != 0 ? null
+                    : new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length - PAYLOAD_HEADER_SIZE, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length - PAYLOAD_HEADER_SIZE);
+            replay.review(id, rating, comments);
+            position += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * Reads from the log until the buffer holds at least {@code size} bytes or
+     * the end of the log is reached, growing the buffer for large records.
+     */
+    private ByteBuffer fill(ByteBuffer buffer, int size) throws IOException {
+        if (buffer.remaining() >= size) {
+            return buffer;
+        }
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(size).put(buffer);
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < size) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.math.BigDecimal;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.util.concurrent.Callable;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Checks that {@link FieldSplitter} splits and converts fields the same way
+ * as {@code MessageFormat} and the JDK parse methods the loader used before.
+ *
+ * @author redhat
+ */
+public class FieldSplitterTest {
+
+    private static final String PRODUCT_FORMAT = "{0},{1},{2},{3},{4},{5}";
+    private static final String REVIEW_FORMAT = "{0},{1}";
+
+    private static final String[] LINES = {
+        "D,101,English Breakfast Tea,1.99,4,2019-09-19",
+        "F,102,Chocolate Cake,2.99,0,2022-01-31",
+        "F,103,Cake, with a comma,2.99,4,2022-01-31",
+        "D,104,,0.5,5,2022-02-29",
+        "D,105,Tea,10,1,2022-13-01",
+        "D,106,Tea,1e2,1,2022-1-01",
+        "D,107,Tea,.5,x,+2022-01-01",
+        "D,108,Tea,007.000,-3,2022-01-01,extra,fields",
+        "D,109,Tea,0.0001,2147483647,2022-01-01",
+        "D,110,Tea,12345678.9,2147483648,2022-01-01",
+        "D,111,Tea,-1.5,00000000001,2022-01-01",
+        "D,112,Tea,1.,+4,2022-01-01",
+        "D,113,Tea,.,4,2022-01-01",
+        ",,,,,",
+        "D,114,Tea,1.99,4",
+        ""};
+
+    @Test
+    public void supportsOnlySimpleFormats() {
+        assertTrue(FieldSplitter.supports(PRODUCT_FORMAT));
+        assertTrue(FieldSplitter.supports(REVIEW_FORMAT));
+        assertTrue(FieldSplitter.supports("{0};{1}"));
+        assertFalse(FieldSplitter.supports("{1},{0}"));
+        assertFalse(FieldSplitter.supports("{0},{1};{2}"));
+        assertFalse(FieldSplitter.supports("{0}'{1}"));
+        assertFalse(FieldSplitter.supports("{0,number},{1}"));
+    }
+
+    @Test
+    public void splitsLikeMessageFormat() {
+        for (String format : new String[]{PRODUCT_FORMAT, REVIEW_FORMAT}) {
+            FieldSplitter fields = new FieldSplitter(format);
+            for (String line : LINES) {
+                Object[] expected;
+                try {
+                    expected = new MessageFormat(format).parse(line);
+                } catch (ParseException ex) {
+                    try {
+                        fields.split(line);
+                        fail("No parse error for " + line);
+                    } catch (ParseException splitError) {
+                        assertEquals(ex.getMessage(), splitError.getMessage());
+                    }
+                    continue;
+                }
+                try {
+                    fields.split(line);
+                } catch (ParseException ex) {
+                    throw new AssertionError("Parse error for " + line, ex);
+                }
+                for (int field = 0; field < expected.length; field++) {
+                    String value = (String) expected[field];
+                    assertEquals(line, value, fields.getString(field));
+                    assertTrue(line, fields.isField(field, value));
+                    assertEquals(line, value, fields.getString(field, new CommentDictionary(16)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void convertsLikeTheJdk() throws ParseException {
+        FieldSplitter fields = new FieldSplitter(PRODUCT_FORMAT);
+        for (String line : LINES) {
+            try {
+                new MessageFormat(PRODUCT_FORMAT).parse(line);
+            } catch (ParseException ex) {
+                continue;
+            }
+            fields.split(line);
+            for (int field = 0; field < 6; field++) {
+                int f = field;
+                String value = fields.getString(field);
+                assertConverted(line, () -> Integer.parseInt(value), () -> fields.getInt(f));
+                assertConverted(line, () -> BigDecimal.valueOf(Double.parseDouble(value)), () -> fields.getDecimal(f));
+                assertConverted(line, () -> LocalDate.parse(value), () -> fields.getDate(f));
+            }
+        }
+    }
+
+    /**
+     * Asserts that both conversions give equal results, or both throw the
+     * same exception type with the same message.
+     */
+    private static void assertConverted(String line, Callable<Object> expected, Callable<Object> actual) {
+        Object expectedValue;
+        try {
+            expectedValue = expected.call();
+        } catch (Exception ex) {
+            try {
+                Object value = actual.call();
+                fail(line + ": expected " + ex + " but got " + value);
+            } catch (Exception actualError) {
+                assertEquals(line, ex.getClass(), actualError.getClass());
+                assertEquals(line, ex.getMessage(), actualError.getMessage());
+            }
+            return;
+        }
+        try {
+            Object value = actual.call();
+            assertEquals(line, expectedValue, value);
+            if (value instanceof BigDecimal) {
+                assertEquals(line, ((BigDecimal) expectedValue).scale(), ((BigDecimal) value).scale());
+            }
+        } catch (Exception ex) {
+            throw new AssertionError(line + ": unexpected " + ex, ex);
+        }
+    }
+}
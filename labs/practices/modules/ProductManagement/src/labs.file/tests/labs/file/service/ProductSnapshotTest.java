@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import labs.pm.data.Drink;
+import labs.pm.data.Food;
+import labs.pm.data.Product;
+import labs.pm.data.Rating;
+import labs.pm.data.Review;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes snapshots with {@link ProductSnapshot} and checks that all product
+ * and review fields are read back unchanged, from a stream and from a
+ * {@link MappedSnapshot}, and that corrupt snapshots are rejected with an
+ * {@code IOException}.
+ *
+ * @author redhat
+ */
+public class ProductSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private Map<Product, List<Review>> products;
+
+    @Before
+    public void createProducts() throws IOException {
+        file = folder.newFile("products.snapshot").toPath();
+        products = new LinkedHashMap<>();
+        products.put(new Drink(101, "Tea", new BigDecimal("1.99"), Rating.FOUR_STAR), List.of(
+                new Review(Rating.FOUR_STAR, "Nice hot cup of tea"),
+                new Review(Rating.TWO_STAR, "Rather weak, with a comma"),
+                new Review(Rating.THREE_STAR, null)));
+        products.put(new Food(102, "Gâteau au chocolat ☕", new BigDecimal("1234567.5"), Rating.NOT_RATED,
+                LocalDate.of(2022, 2, 28)), List.of());
+        products.put(new Food(103, "", new BigDecimal("0.00"), Rating.FIVE_STAR, LocalDate.of(1970, 1, 1)), List.of(
+                new Review(Rating.FIVE_STAR, ""),
+                new Review(Rating.ONE_STAR, "Заварной крем 🍰")));
+    }
+
+    static void write(Path file, Map<Product, List<Review>> products) throws IOException {
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ProductSnapshot.write(out, products);
+        }
+    }
+
+    static void assertSameProducts(Map<Product, List<Review>> expected, Map<Product, List<Review>> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (Map.Entry<Product, List<Review>> entry : actual.entrySet()) {
+            Product product = entry.getKey();
+            Product original = expected.keySet().stream().filter(product::equals).findFirst().orElseThrow();
+            assertEquals(original.getClass(), product.getClass());
+            assertEquals(original.getName(), product.getName());
+            assertEquals(original.getPrice(), product.getPrice());
+            assertEquals(original.getRating(), product.getRating());
+            assertEquals(original.getBestBefore(), product.getBestBefore());
+            assertEquals(expected.get(original).toString(), entry.getValue().toString());
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                assertEquals(expected.get(original).get(i).getComments(), entry.getValue().get(i).getComments());
+            }
+        }
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        write(file, products);
+        try (FileChannel in = FileChannel.open(file)) {
+            assertTrue(ProductSnapshot.isSnapshot(in));
+            assertSameProducts(products, ProductSnapshot.read(in));
+        }
+    }
+
+    @Test
+    public void readsAnEmptySnapshot() throws IOException {
+        write(file, Map.of());
+        try (FileChannel in = FileChannel.open(file)) {
+            assertTrue(ProductSnapshot.read(in).isEmpty());
+        }
+    }
+
+    @Test
+    public void recognizesOtherFiles() throws IOException {
+        try (FileChannel in = FileChannel.open(file)) {
+            assertFalse(ProductSnapshot.isSnapshot(in));
+        }
+    }
+
+    @Test
+    public void mapsWhatWasWritten() throws IOException {
+        write(file, products);
+        Map<Product, List<Review>> taken = new HashMap<>();
+        try (FileChannel in = FileChannel.open(file)) {
+            MappedSnapshot mapped = new MappedSnapshot(in);
+            assertEquals(products.size(), mapped.size());
+            for (int id : mapped.ids()) {
+                mapped.take(id, taken);
+            }
+            assertTrue(mapped.isEmpty());
+        }
+        assertSameProducts(products, taken);
+    }
+
+    @Test
+    public void readsButDoesNotMapVersion1() throws IOException {
+        byte[] name = "Tea".getBytes(StandardCharsets.UTF_8);
+        byte[] comments = "Ok".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(128)
+                .putInt(ProductSnapshot.MAGIC).putShort((short) 1).putShort((short) 0).putInt(1).putLong(1)
+                .put((byte) 'D').putInt(101).putInt(name.length).put(name)
+                .putInt(2).put((byte) 2).put((byte) 0).put((byte) 199).put((byte) Rating.THREE_STAR.ordinal()).putInt(1)
+                .put((byte) Rating.THREE_STAR.ordinal()).putInt(comments.length).put(comments);
+        writeBytes(0, buffer.flip());
+        try (FileChannel in = FileChannel.open(file)) {
+            assertSameProducts(Map.of(new Drink(101, "Tea", new BigDecimal("1.99"), Rating.THREE_STAR),
+                    List.of(new Review(Rating.THREE_STAR, "Ok"))), ProductSnapshot.read(in));
+            assertThrows(StreamCorruptedException.class, () -> new MappedSnapshot(in));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidRatings() throws IOException {
+        Map<Product, List<Review>> tea = Map.of(new Drink(101, "Tea", new BigDecimal("0.01"), Rating.FOUR_STAR),
+                List.of(new Review(Rating.TWO_STAR, "Ok")));
+        // Header, type, id, name length and name, scale, unscaled length and unscaled price 1
+        int productRating = ProductSnapshot.HEADER_SIZE + 1 + 4 + 4 + 3 + 4 + 1 + 1;
+        for (byte rating : new byte[]{-1, 6, Byte.MIN_VALUE}) {
+            write(file, tea);
+            writeBytes(productRating, ByteBuffer.wrap(new byte[]{rating}));
+            assertCorrupt(StreamCorruptedException.class);
+            write(file, tea);
+            writeBytes(reviewSection(), ByteBuffer.wrap(new byte[]{rating}));
+            assertCorrupt(StreamCorruptedException.class);
+        }
+    }
+
+    @Test
+    public void rejectsInvalidHeadersAndLengths() throws IOException {
+        write(file, products);
+        writeBytes(Integer.BYTES, ByteBuffer.allocate(Short.BYTES).putShort(0, (short) 3));
+        assertCorrupt(StreamCorruptedException.class);
+        write(file, products);
+        // Length of the name of the first product
+        writeBytes(ProductSnapshot.HEADER_SIZE + 1 + 4, ByteBuffer.allocate(Integer.BYTES).putInt(0, -1));
+        assertCorrupt(StreamCorruptedException.class);
+        write(file, products);
+        writeBytes(ProductSnapshot.HEADER_SIZE, ByteBuffer.wrap(new byte[]{'X'}));
+        assertCorrupt(StreamCorruptedException.class);
+    }
+
+    @Test
+    public void rejectsTruncatedSnapshots() throws IOException {
+        write(file, products);
+        long size;
+        try (FileChannel channel = FileChannel.open(file)) {
+            size = channel.size();
+        }
+        for (long length : new long[]{size - 1, ProductSnapshot.HEADER_SIZE + 3, ProductSnapshot.HEADER_SIZE - 1}) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(length);
+            }
+            assertCorrupt(EOFException.class);
+        }
+    }
+
+    private long reviewSection() throws IOException {
+        ByteBuffer position = ByteBuffer.allocate(Long.BYTES);
+        try (FileChannel in = FileChannel.open(file)) {
+            in.read(position, ProductSnapshot.REVIEW_SECTION_POSITION);
+        }
+        return position.getLong(0);
+    }
+
+    private void writeBytes(long position, ByteBuffer bytes) throws IOException {
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            out.write(bytes, position);
+        }
+    }
+
+    /**
+     * Asserts that reading the snapshot, and taking all products from the
+     * mapped snapshot, fail with the given exception.
+     */
+    private void assertCorrupt(Class<? extends IOException> expected) throws IOException {
+        try (FileChannel in = FileChannel.open(file)) {
+            assertThrows(expected, () -> ProductSnapshot.read(in));
+        }
+        try (FileChannel in = FileChannel.open(file)) {
+            assertThrows(expected, () -> {
+                MappedSnapshot mapped = new MappedSnapshot(in);
+                Map<Product, List<Review>> taken = new HashMap<>();
+                for (int id : mapped.ids()) {
+                    mapped.take(id, taken);
+                }
+            });
+        }
+    }
+}
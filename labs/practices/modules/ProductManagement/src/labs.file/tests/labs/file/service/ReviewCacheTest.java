@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Loads, changes and unloads products through a {@link ReviewCache} the way
+ * {@link ProductFileManager} does, and checks that the least recently used
+ * products are unloaded and that changed reviews are written back.
+ *
+ * @author redhat
+ */
+public class ReviewCacheTest {
+
+    private final ReviewCache cache = new ReviewCache(2);
+    private final Map<Integer, String> loaded = new HashMap<>();
+    private final Map<Integer, String> written = new HashMap<>();
+
+    private void access(int id) {
+        if (loaded.containsKey(id)) {
+            cache.hit(id);
+            return;
+        }
+        loaded.put(id, "reviews of " + id);
+        for (int victim : cache.miss(id)) {
+            Boolean dirty = cache.evict(victim);
+            if (dirty != null && dirty) {
+                written.put(victim, loaded.get(victim));
+                cache.writtenBack();
+            }
+            loaded.remove(victim);
+        }
+    }
+
+    private void review(int id) {
+        access(id);
+        loaded.put(id, loaded.get(id) + ", changed");
+        cache.markDirty(id);
+    }
+
+    @Test
+    public void unloadsLeastRecentlyUsed() {
+        access(1);
+        access(2);
+        access(1);
+        access(3);
+        assertEquals(Map.of(1, "reviews of 1", 3, "reviews of 3"), loaded);
+        assertEquals(Map.of(), written);
+        assertEquals(List.of(), cache.getDirty());
+        Map<String, Long> statistics = cache.getStatistics();
+        assertEquals(2L, (long) statistics.get("review.cache.size"));
+        assertEquals(1L, (long) statistics.get("review.cache.hits"));
+        assertEquals(3L, (long) statistics.get("review.cache.misses"));
+        assertEquals(1L, (long) statistics.get("review.cache.evictions"));
+        assertEquals(0L, (long) statistics.get("review.cache.writebacks"));
+    }
+
+    @Test
+    public void writesBackChangedReviews() {
+        review(1);
+        access(2);
+        review(2);
+        access(3);
+        assertEquals(Map.of(1, "reviews of 1, changed"), written);
+        assertEquals(List.of(2), cache.getDirty());
+        cache.clean(2);
+        assertEquals(List.of(), cache.getDirty());
+        access(4);
+        assertEquals(Map.of(1, "reviews of 1, changed"), written);
+        assertEquals(2L, (long) cache.getStatistics().get("review.cache.writebacks"));
+    }
+
+    @Test
+    public void keepsReviewsThatCannotBeUnloaded() {
+        review(1);
+        access(2);
+        loaded.put(3, "reviews of 3");
+        List<Integer> victims = cache.miss(3);
+        assertEquals(List.of(1), victims);
+        // The write back fails, so the reviews stay loaded and changed.
+        assertEquals(true, cache.evict(1));
+        cache.restore(1);
+        assertEquals(List.of(1), cache.getDirty());
+        // A product in use is skipped and unloaded on a later miss.
+        cache.skipped();
+        assertEquals(3L, (long) cache.getStatistics().get("review.cache.size"));
+        access(4);
+        assertEquals(Map.of(1, "reviews of 1, changed", 4, "reviews of 4"), loaded);
+        assertEquals(List.of(1), cache.getDirty());
+        assertEquals(2L, (long) cache.getStatistics().get("review.cache.size"));
+        assertEquals(1L, (long) cache.getStatistics().get("review.cache.skipped"));
+        assertNull(cache.evict(2));
+    }
+}
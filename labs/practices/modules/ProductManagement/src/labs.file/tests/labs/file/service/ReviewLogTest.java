@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.file.service;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import labs.pm.data.Rating;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Appends reviews to a {@link ReviewLog}, opens it again and checks that the
+ * same reviews are replayed, that incomplete records are cut off, that
+ * corrupt records are rejected and that a failed group sync fails only the
+ * writers it covered.
+ *
+ * @author redhat
+ */
+public class ReviewLogTest {
+
+    private static final List<String> REVIEWS = List.of(
+            "101 FOUR_STAR Nice hot cup of tea",
+            "102 ONE_STAR null",
+            "103 NOT_RATED ",
+            "104 FIVE_STAR Заварной крем 🍰, with a comma");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private final List<String> replayed = new ArrayList<>();
+
+    @Before
+    public void createFile() {
+        file = folder.getRoot().toPath().resolve("reviews.log");
+    }
+
+    private ReviewLog open(ReviewLog.Sync sync) throws IOException {
+        replayed.clear();
+        return new ReviewLog(file, sync, 10, (id, rating, comments) -> replayed.add(id + " " + rating + " " + comments));
+    }
+
+    private long append(ReviewLog.Sync sync) throws IOException, InterruptedException {
+        ReviewLog log = open(sync);
+        log.awaitSync(log.append(101, Rating.FOUR_STAR, "Nice hot cup of tea"));
+        log.awaitSync(log.append(102, Rating.ONE_STAR, null));
+        log.awaitSync(log.append(103, Rating.NOT_RATED, ""));
+        long position = log.append(104, Rating.FIVE_STAR, "Заварной крем 🍰, with a comma");
+        log.awaitSync(position);
+        log.close();
+        return position;
+    }
+
+    @Test
+    public void replaysWhatWasAppended() throws IOException, InterruptedException {
+        for (ReviewLog.Sync sync : ReviewLog.Sync.values()) {
+            file = folder.getRoot().toPath().resolve(sync + ".log");
+            append(sync);
+            open(ReviewLog.Sync.OS).close();
+            assertEquals(sync.toString(), REVIEWS, replayed);
+        }
+    }
+
+    @Test
+    public void cutsOffIncompleteRecords() throws IOException, InterruptedException {
+        long size = append(ReviewLog.Sync.GROUP);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 1);
+        }
+        ReviewLog log = open(ReviewLog.Sync.ALWAYS);
+        assertEquals(REVIEWS.subList(0, 3), replayed);
+        log.append(105, Rating.TWO_STAR, "After the cut");
+        log.close();
+        open(ReviewLog.Sync.OS).close();
+        assertEquals(4, replayed.size());
+        assertEquals("105 TWO_STAR After the cut", replayed.get(3));
+    }
+
+    @Test
+    public void stopsAtChecksumErrors() throws IOException, InterruptedException {
+        append(ReviewLog.Sync.OS);
+        // The last byte of the comments of the first record
+        writeBytes(8 + 5 + "Nice hot cup of tea".length() - 1, (byte) 'A');
+        open(ReviewLog.Sync.OS).close();
+        assertEquals(List.of(), replayed);
+    }
+
+    @Test
+    public void rejectsInvalidRatings() throws IOException, InterruptedException {
+        ReviewLog log = open(ReviewLog.Sync.OS);
+        log.append(101, Rating.FOUR_STAR, "Ok");
+        log.close();
+        // Rewrite the rating and the checksum of the record, so only the rating is invalid.
+        byte[] payload = {0, 0, 0, 101, 9, 'O', 'k'};
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        writeBytes(Integer.BYTES, ByteBuffer.allocate(Integer.BYTES).putInt(0, (int) crc.getValue()).array());
+        writeBytes(8 + 4, (byte) 9);
+        assertThrows(StreamCorruptedException.class, () -> open(ReviewLog.Sync.OS));
+    }
+
+    @Test
+    public void failsWritersOfAFailedSyncOnly() throws IOException, InterruptedException {
+        FailingChannel channel = new FailingChannel(FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        ReviewLog log = new ReviewLog(channel, ReviewLog.Sync.GROUP, 10, (id, rating, comments) -> {
+        });
+        channel.failing = true;
+        long failed = log.append(101, Rating.FOUR_STAR, "Nice hot cup of tea");
+        assertThrows(IOException.class, () -> log.awaitSync(failed));
+        channel.failing = false;
+        log.awaitSync(log.append(102, Rating.ONE_STAR, null));
+        // The force that covered the second record covered the first as well.
+        log.awaitSync(failed);
+        assertTrue(channel.forces > 1);
+        log.close();
+        open(ReviewLog.Sync.OS).close();
+        assertEquals(REVIEWS.subList(0, 2), replayed);
+    }
+
+    private void writeBytes(long position, byte... bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), position);
+        }
+    }
+
+    /**
+     * A file channel whose forces fail while {@code failing} is set.
+     */
+    private static class FailingChannel extends FileChannel {
+
+        private final FileChannel channel;
+        private volatile boolean failing;
+        private volatile int forces;
+
+        private FailingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            forces++;
+            if (failing) {
+                throw new IOException("Disk failure");
+            }
+            channel.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.memory.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import labs.pm.data.Drink;
+import labs.pm.data.Food;
+import labs.pm.data.Product;
+import labs.pm.data.Rating;
+import labs.pm.data.Review;
+import labs.pm.service.ProductManager;
+import labs.pm.service.ProductManagerException;
+
+/**
+ * {@code ConcurrentProductManager} is an in-memory {@link ProductManager}
+ * that does not use any locks of its own.
+ * <br>
+ * Products are kept in a {@link ConcurrentHashMap} keyed by product id. Each
+ * entry is immutable, so readers never block and a review replaces the entry
+ * of a single product with one atomic {@code computeIfPresent}.
+ *
+ * @author redhat
+ */
+public class ConcurrentProductManager implements ProductManager {
+
+    private final Map<Integer, ProductEntry> products = new ConcurrentHashMap<>();
+
+    private static final Logger logger = Logger.getLogger(ConcurrentProductManager.class.getName());
+
+    @Override
+    public Product createProduct(int id, String name, BigDecimal price, Rating rating) {
+        Product product = new Drink(id, name, price, rating);
+        products.putIfAbsent(id, new ProductEntry(product));
+        return product;
+    }
+
+    @Override
+    public Product createProduct(int id, String name, BigDecimal price, Rating rating, LocalDate bestBefore) {
+        Product product = new Food(id, name, price, rating, bestBefore);
+        products.putIfAbsent(id, new ProductEntry(product));
+        return product;
+    }
+
+    @Override
+    public Product reviewProduct(int id, Rating rating, String comments) {
+        Review review = new Review(rating, comments);
+        ProductEntry entry = products.computeIfPresent(id, (key, current) -> current.addReview(review));
+        if (entry == null) {
+            logger.log(Level.INFO, "Product with id " + id + " not found");
+            return null;
+        }
+        return entry.product;
+    }
+
+    @Override
+    public Product findProduct(int id) throws ProductManagerException {
+        return findEntry(id).product;
+    }
+
+    @Override
+    public List<Product> findProducts(Predicate<Product> filter) throws ProductManagerException {
+        return products.values()
+                .stream()
+                .map(entry -> entry.product)
+                .filter(filter)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Review> findReviews(int id) throws ProductManagerException {
+        return findEntry(id).getReviews();
+    }
+
+    @Override
+    public Map<Rating, BigDecimal> getDiscounts() throws ProductManagerException {
+        return products.values()
+                .stream()
+                .map(entry -> entry.product)
+                .collect(
+                        Collectors.groupingBy(
+                                product -> product.getRating(),
+                                Collectors.collectingAndThen(
+                                        Collectors.summingLong(product -> product.getDiscountCents()),
+                                        discount -> BigDecimal.valueOf(discount, 2)
+                                )
+                        )
+                );
+    }
+
+    private ProductEntry findEntry(int id) throws ProductManagerException {
+        ProductEntry entry = products.get(id);
+        if (entry == null) {
+            throw new ProductManagerException("Product with id " + id + " not found");
+        }
+        return entry;
+    }
+
+    /**
+     * Immutable state of one product: the product itself and its reviews as a
+     * linked list with the newest review first.
+     */
+    private static class ProductEntry {
+
+        private final Product product;
+        private final ReviewNode reviews;
+
+        private ProductEntry(Product product) {
+            this(product, null);
+        }
+
+        private ProductEntry(Product product, ReviewNode reviews) {
+            this.product = product;
+            this.reviews = reviews;
+        }
+
+        private ProductEntry addReview(Review review) {
+            ReviewNode node = new ReviewNode(review, reviews);
+            return new ProductEntry(product.applyRating(node.getAverage()), node);
+        }
+
+        private List<Review> getReviews() {
+            return ReviewNode.toList(reviews);
+        }
+    }
+}
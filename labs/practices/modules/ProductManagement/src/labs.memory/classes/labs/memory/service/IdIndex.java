@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.memory.service;
+
+import java.util.Arrays;
+
+/**
+ * {@code IdIndex} maps product ids to slot numbers in two int arrays with
+ * open addressing, so the index holds no object per product.
+ * <br>
+ * Reads can share the index, changes need exclusive access.
+ *
+ * @author redhat
+ */
+final class IdIndex {
+
+    static final int NONE = -1;
+
+    private int[] ids;
+    private int[] slots;
+    private int size;
+
+    IdIndex(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(8, expected) * 2 - 1) * 2;
+        ids = new int[capacity];
+        slots = new int[capacity];
+        Arrays.fill(slots, NONE);
+    }
+
+    /**
+     * Looks up the slot of a product.
+     *
+     * @param id the product id
+     * @return the slot, or {@link #NONE} if the id is not in the index
+     */
+    int get(int id) {
+        int mask = slots.length - 1;
+        for (int i = hash(id) & mask; slots[i] != NONE; i = (i + 1) & mask) {
+            if (ids[i] == id) {
+                return slots[i];
+            }
+        }
+        return NONE;
+    }
+
+    void put(int id, int slot) {
+        if (2 * (size + 1) > slots.length) {
+            resize(slots.length * 2);
+        }
+        if (insert(ids, slots, id, slot)) {
+            size++;
+        }
+    }
+
+    private void resize(int capacity) {
+        int[] newIds = new int[capacity];
+        int[] newSlots = new int[capacity];
+        Arrays.fill(newSlots, NONE);
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != NONE) {
+                insert(newIds, newSlots, ids[i], slots[i]);
+            }
+        }
+        ids = newIds;
+        slots = newSlots;
+    }
+
+    private static boolean insert(int[] ids, int[] slots, int id, int slot) {
+        int mask = slots.length - 1;
+        int i = hash(id) & mask;
+        while (slots[i] != NONE) {
+            if (ids[i] == id) {
+                slots[i] = slot;
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        ids[i] = id;
+        slots[i] = slot;
+        return true;
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
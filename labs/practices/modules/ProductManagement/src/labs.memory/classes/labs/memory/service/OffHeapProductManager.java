@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.memory.service;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import labs.pm.data.Drink;
+import labs.pm.data.Food;
+import labs.pm.data.Product;
+import labs.pm.data.Rateable;
+import labs.pm.data.Rating;
+import labs.pm.data.Review;
+import labs.pm.data.TimeSource;
+import labs.pm.service.ProductManager;
+import labs.pm.service.ProductManagerException;
+import labs.pm.service.ProductQuery;
+
+/**
+ * {@code OffHeapProductManager} keeps the product catalogue outside the Java
+ * heap, so a large catalogue adds no objects for the garbage collector to
+ * trace.
+ * <br>
+ * Every product is a fixed-width slot of 32 bytes: id, type and rating,
+ * price in cents, best before epoch day, the offset of its UTF-8 name in a
+ * separate name region, and the number of reviews and the sum of their
+ * ratings. Slots are found by id through an {@link IdIndex},
+ * and a {@code Drink} or {@code Food} is only created from its slot when a
+ * product is returned or tested against a predicate. Queries and discounts
+ * are computed from the slot fields.
+ * <br>
+ * With {@code offheap.folder} configured, slots and names are mapped from
+ * files in that folder, so the catalogue stays in the page cache and is
+ * opened again without loading at the next start. Files of another format
+ * are moved aside to {@code .old} files rather than overwritten. Otherwise
+ * they live in
+ * direct buffers. Reviews are kept on the heap, as an immutable list per
+ * product like {@link ConcurrentProductManager}, and are not stored in the
+ * files. The review count and rating sum in the slot are, so after a restart
+ * the rating still averages all reviews ever given, including those that
+ * are no longer listed.
+ * <br>
+ * Adding a product takes the write lock, since the regions and the index may
+ * grow. Reviews share the read lock and are serialised per product by a
+ * stripe lock; the rating is written with a volatile put, so readers see it
+ * without taking the stripe lock.
+ *
+ * @author redhat
+ */
+public class OffHeapProductManager implements ProductManager {
+
+    private static final int MAGIC = 0x50726f64;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int HEADER_COUNT = 8;
+    private static final int HEADER_NAME_BYTES = 12;
+    private static final int SLOT_SIZE = 32;
+    private static final int SLOT_ID = 0;
+    // type in the second byte, rating ordinal in the lowest byte
+    private static final int SLOT_KIND = 4;
+    private static final int SLOT_PRICE = 8;
+    private static final int SLOT_BEST_BEFORE = 16;
+    private static final int SLOT_NAME = 20;
+    private static final int SLOT_REVIEW_COUNT = 24;
+    private static final int SLOT_RATING_SUM = 28;
+    private static final int DRINK = 'D';
+    private static final int FOOD = 'F';
+    private static final int AVERAGE_NAME_BYTES = 24;
+    private static final int LOCK_STRIPES = 256;
+    private static final Rating[] RATINGS = Rating.values();
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final ResourceBundle config = ResourceBundle.getBundle("labs.memory.service.config");
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock writeLock = lock.writeLock();
+    private final Lock readLock = lock.readLock();
+    private final Lock[] stripes = Stream.generate(ReentrantLock::new).limit(LOCK_STRIPES).toArray(Lock[]::new);
+    private final Map<Integer, ReviewNode> reviews = new ConcurrentHashMap<>();
+    private OffHeapRegion slots;
+    private OffHeapRegion names;
+    private IdIndex index;
+    private int count;
+    private int nameBytes;
+
+    private static final Logger logger = Logger.getLogger(OffHeapProductManager.class.getName());
+
+    public OffHeapProductManager() {
+        int initialProducts = Integer.parseInt(config.getString("offheap.initial.products"));
+        String folder = config.getString("offheap.folder");
+        if (!folder.isEmpty()) {
+            try {
+                Path path = Files.createDirectories(Path.of(folder));
+                Path slotsFile = path.resolve(config.getString("offheap.slots.file"));
+                Path namesFile = path.resolve(config.getString("offheap.names.file"));
+                if (Files.exists(slotsFile) && !isCatalogue(slotsFile)) {
+                    logger.log(Level.WARNING, "Mapped catalogue in " + path + " has an unknown format, moving it to .old files");
+                    moveAside(slotsFile);
+                    moveAside(namesFile);
+                }
+                slots = OffHeapRegion.map(slotsFile, HEADER_SIZE + initialProducts * SLOT_SIZE);
+                names = OffHeapRegion.map(namesFile, initialProducts * AVERAGE_NAME_BYTES);
+                if (slots.isExisting() && openCatalogue()) {
+                    logger.log(Level.INFO, "Mapped " + count + " products from " + path);
+                    return;
+                }
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Error mapping catalogue, using direct buffers " + ex.getMessage(), ex);
+                slots = null;
+            }
+        }
+        if (slots == null) {
+            slots = OffHeapRegion.allocate(HEADER_SIZE + initialProducts * SLOT_SIZE);
+            names = OffHeapRegion.allocate(initialProducts * AVERAGE_NAME_BYTES);
+        }
+        index = new IdIndex(initialProducts);
+        ByteBuffer header = slots.buffer();
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        writeHeader();
+    }
+
+    /**
+     * Reads the header of a mapped catalogue and indexes its slots.
+     *
+     * @return false if the file is not a catalogue of this version
+     */
+    private boolean openCatalogue() {
+        ByteBuffer buffer = slots.buffer();
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            logger.log(Level.WARNING, "Ignoring mapped catalogue with unknown format");
+            return false;
+        }
+        count = buffer.getInt(HEADER_COUNT);
+        nameBytes = buffer.getInt(HEADER_NAME_BYTES);
+        index = new IdIndex(count);
+        for (int slot = 0; slot < count; slot++) {
+            index.put(buffer.getInt(offset(slot) + SLOT_ID), slot);
+        }
+        return true;
+    }
+
+    @Override
+    public Product createProduct(int id, String name, BigDecimal price, Rating rating) {
+        return putProduct(new Drink(id, name, price, rating));
+    }
+
+    @Override
+    public Product createProduct(int id, String name, BigDecimal price, Rating rating, LocalDate bestBefore) {
+        return putProduct(new Food(id, name, price, rating, bestBefore));
+    }
+
+    private Product putProduct(Product product) {
+        try {
+            writeLock.lock();
+            if (index.get(product.getId()) != IdIndex.NONE) {
+                return product;
+            }
+            byte[] name = product.getName().getBytes(StandardCharsets.UTF_8);
+            names.ensure((long) nameBytes + 5 + name.length);
+            slots.ensure(HEADER_SIZE + (count + 1L) * SLOT_SIZE);
+            int nameOffset = nameBytes;
+            nameBytes = writeName(names.buffer(), nameOffset, name);
+            ByteBuffer buffer = slots.buffer();
+            int offset = offset(count);
+            int type = product instanceof Food ? FOOD : DRINK;
+            buffer.putInt(offset + SLOT_ID, product.getId());
+            buffer.putInt(offset + SLOT_KIND, type << 8 | product.getRating().ordinal());
+            buffer.putLong(offset + SLOT_PRICE, product.getPriceCents());
+            buffer.putInt(offset + SLOT_BEST_BEFORE, type == FOOD ? Math.toIntExact(product.getBestBefore().toEpochDay()) : 0);
+            buffer.putInt(offset + SLOT_NAME, nameOffset);
+            buffer.putInt(offset + SLOT_REVIEW_COUNT, 0);
+            buffer.putInt(offset + SLOT_RATING_SUM, 0);
+            index.put(product.getId(), count);
+            count++;
+            // The count is written last, so a mapped catalogue never counts a slot that is not complete.
+            writeHeader();
+        } catch (IOException | ArithmeticException ex) {
+            logger.log(Level.SEVERE, "Error adding product " + ex.getMessage(), ex);
+            return null;
+        } finally {
+            writeLock.unlock();
+        }
+        return product;
+    }
+
+    @Override
+    public Product reviewProduct(int id, Rating rating, String comments) {
+        Lock stripe = stripes[Math.floorMod(id, stripes.length)];
+        try {
+            readLock.lock();
+            stripe.lock();
+            int slot = index.get(id);
+            if (slot == IdIndex.NONE) {
+                logger.log(Level.INFO, "Product with id " + id + " not found");
+                return null;
+            }
+            reviews.put(id, new ReviewNode(new Review(rating, comments), reviews.get(id)));
+            ByteBuffer buffer = slots.buffer();
+            int offset = offset(slot);
+            // The totals in the slot also count the reviews given before a restart.
+            int reviewCount = buffer.getInt(offset + SLOT_REVIEW_COUNT) + 1;
+            int ratingSum = buffer.getInt(offset + SLOT_RATING_SUM) + rating.ordinal();
+            buffer.putInt(offset + SLOT_REVIEW_COUNT, reviewCount);
+            buffer.putInt(offset + SLOT_RATING_SUM, ratingSum);
+            int kind = (int) INT.getVolatile(buffer, offset + SLOT_KIND);
+            Rating average = Rateable.convert((int) Math.round((double) ratingSum / reviewCount));
+            INT.setVolatile(buffer, offset + SLOT_KIND, (kind & ~0xFF) | average.ordinal());
+            return product(slot);
+        } finally {
+            stripe.unlock();
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public Product findProduct(int id) throws ProductManagerException {
+        try {
+            readLock.lock();
+            int slot = index.get(id);
+            if (slot == IdIndex.NONE) {
+                throw new ProductManagerException("Product with id " + id + " not found");
+            }
+            return product(slot);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Product> findProducts(Predicate<Product> filter) throws ProductManagerException {
+        List<Product> found = new ArrayList<>();
+        try {
+            readLock.lock();
+            // A predicate can only test a product, so this is the one scan that creates every product.
+            for (int slot = 0; slot < count; slot++) {
+                Product product = product(slot);
+                if (filter.test(product)) {
+                    found.add(product);
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return found;
+    }
+
+    /**
+     * Finds products matching a query. Price, rating, type and best before
+     * date are checked on the slot, so only the products that match are
+     * created, and tested against the filter of the query if it has one.
+     */
+    @Override
+    public List<Product> findProducts(ProductQuery query) throws ProductManagerException {
+        long minPrice = query.getMinPriceCents() != null ? query.getMinPriceCents() : Long.MIN_VALUE;
+        long maxPrice = query.getMaxPriceCents() != null ? query.getMaxPriceCents() : Long.MAX_VALUE;
+        Set<Rating> ratings = query.getRatings();
+        Class<? extends Product> type = query.getType();
+        boolean drinks = type == null || type.isAssignableFrom(Drink.class);
+        boolean foods = type == null || type.isAssignableFrom(Food.class);
+        long fromDay = query.getBestBeforeFrom() != null ? query.getBestBeforeFrom().toEpochDay() : Long.MIN_VALUE;
+        long toDay = query.getBestBeforeTo() != null ? query.getBestBeforeTo().toEpochDay() : Long.MAX_VALUE;
+        // A drink is best before today.
+        long today = TimeSource.getInstance().today().toEpochDay();
+        Predicate<Product> filter = query.getFilter();
+        List<Product> found = new ArrayList<>();
+        try {
+            readLock.lock();
+            ByteBuffer buffer = slots.buffer();
+            for (int slot = 0; slot < count; slot++) {
+                int offset = offset(slot);
+                long price = buffer.getLong(offset + SLOT_PRICE);
+                if (price < minPrice || price >= maxPrice) {
+                    continue;
+                }
+                int kind = (int) INT.getVolatile(buffer, offset + SLOT_KIND);
+                boolean food = (kind >>> 8) == FOOD;
+                if (!(food ? foods : drinks)
+                        || (ratings != null && !ratings.contains(RATINGS[kind & 0xFF]))) {
+                    continue;
+                }
+                long bestBefore = food ? buffer.getInt(offset + SLOT_BEST_BEFORE) : today;
+                if (bestBefore < fromDay || bestBefore > toDay) {
+                    continue;
+                }
+                Product product = product(slot);
+                if (filter == null || filter.test(product)) {
+                    found.add(product);
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return found;
+    }
+
+    @Override
+    public List<Review> findReviews(int id) throws ProductManagerException {
+        findProduct(id);
+        return ReviewNode.toList(reviews.get(id));
+    }
+
+    @Override
+    public Map<Rating, BigDecimal> getDiscounts() throws ProductManagerException {
+        long[] totals = new long[RATINGS.length];
+        boolean[] rated = new boolean[RATINGS.length];
+        // Drinks are discounted at happy hour, food on its best before date.
+        boolean happyHour = Drink.isHappyHour();
+        long today = TimeSource.getInstance().today().toEpochDay();
+        try {
+            readLock.lock();
+            ByteBuffer buffer = slots.buffer();
+            for (int slot = 0; slot < count; slot++) {
+                int offset = offset(slot);
+                int kind = (int) INT.getVolatile(buffer, offset + SLOT_KIND);
+                int rating = kind & 0xFF;
+                rated[rating] = true;
+                if ((kind >>> 8) == FOOD ? buffer.getInt(offset + SLOT_BEST_BEFORE) == today : happyHour) {
+                    totals[rating] += Product.discountCents(buffer.getLong(offset + SLOT_PRICE));
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+        Map<Rating, BigDecimal> discounts = new EnumMap<>(Rating.class);
+        for (Rating rating : RATINGS) {
+            if (rated[rating.ordinal()]) {
+                discounts.put(rating, BigDecimal.valueOf(totals[rating.ordinal()], 2));
+            }
+        }
+        return discounts;
+    }
+
+    /**
+     * Creates the product held in a slot. The caller holds the read or write
+     * lock.
+     */
+    private Product product(int slot) {
+        ByteBuffer buffer = slots.buffer();
+        int offset = offset(slot);
+        int id = buffer.getInt(offset + SLOT_ID);
+        int kind = (int) INT.getVolatile(buffer, offset + SLOT_KIND);
+        BigDecimal price = BigDecimal.valueOf(buffer.getLong(offset + SLOT_PRICE), 2);
+        String name = readName(names.buffer(), buffer.getInt(offset + SLOT_NAME));
+        Rating rating = RATINGS[kind & 0xFF];
+        if ((kind >>> 8) == FOOD) {
+            return new Food(id, name, price, rating, LocalDate.ofEpochDay(buffer.getInt(offset + SLOT_BEST_BEFORE)));
+        }
+        return new Drink(id, name, price, rating);
+    }
+
+    /**
+     * Tells if a file starts with the header of a catalogue of this version.
+     * An empty file is one that was created but never written.
+     */
+    private static boolean isCatalogue(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES * 2).order(ByteOrder.nativeOrder());
+            return channel.size() == 0
+                    || (channel.read(header, 0) == header.capacity() && header.getInt(0) == MAGIC && header.getInt(4) == VERSION);
+        }
+    }
+
+    /**
+     * Moves a file of an unknown format aside, replacing an earlier one.
+     */
+    private static void moveAside(Path file) throws IOException {
+        if (Files.exists(file)) {
+            Files.move(file, file.resolveSibling(file.getFileName() + ".old"), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private void writeHeader() {
+        ByteBuffer header = slots.buffer();
+        header.putInt(HEADER_NAME_BYTES, nameBytes);
+        header.putInt(HEADER_COUNT, count);
+    }
+
+    /**
+     * Writes a name as its length, 7 bits per byte, followed by its UTF-8
+     * bytes.
+     *
+     * @return the offset after the name
+     */
+    private static int writeName(ByteBuffer buffer, int offset, byte[] name) {
+        int length = name.length;
+        while (length >= 0x80) {
+            buffer.put(offset++, (byte) (length | 0x80));
+            length >>>= 7;
+        }
+        buffer.put(offset++, (byte) length);
+        buffer.duplicate().position(offset).put(name);
+        return offset + name.length;
+    }
+
+    private static String readName(ByteBuffer buffer, int offset) {
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(offset++);
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        byte[] name = new byte[length];
+        buffer.duplicate().position(offset).get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.memory.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@code OffHeapRegion} is a block of memory outside the Java heap that grows
+ * when needed: a direct buffer, or a file mapped into memory that stays in the
+ * page cache after the process ends. Growing a direct buffer copies it,
+ * growing a mapped file extends the file and maps it again.
+ * <br>
+ * A region holds at most 2 GB, the limit of a {@code ByteBuffer}. The owner
+ * makes sure the region does not grow while it is read, and only uses
+ * absolute gets and puts on the shared buffer.
+ *
+ * @author redhat
+ */
+final class OffHeapRegion {
+
+    private final FileChannel channel;
+    private final boolean existing;
+    private ByteBuffer buffer;
+
+    private OffHeapRegion(FileChannel channel, boolean existing, ByteBuffer buffer) {
+        this.channel = channel;
+        this.existing = existing;
+        this.buffer = buffer.order(ByteOrder.nativeOrder());
+    }
+
+    static OffHeapRegion allocate(int size) {
+        return new OffHeapRegion(null, false, ByteBuffer.allocateDirect(size));
+    }
+
+    static OffHeapRegion map(Path file, int size) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long length = channel.size();
+        if (length > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("File " + file + " is too large to map");
+        }
+        return new OffHeapRegion(channel, length > 0, channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(length, size)));
+    }
+
+    /**
+     * Tells if the region was mapped from a file that already had content.
+     */
+    boolean isExisting() {
+        return existing;
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Grows the region to at least {@code size} bytes, doubling its size to
+     * keep the number of copies or remappings low.
+     *
+     * @param size the number of bytes needed
+     * @throws IOException if the region cannot grow that large or the file
+     * cannot be mapped
+     */
+    void ensure(long size) throws IOException {
+        if (size <= buffer.capacity()) {
+            return;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Off-heap region cannot grow beyond " + Integer.MAX_VALUE + " bytes");
+        }
+        int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(size, 2L * buffer.capacity()));
+        if (channel != null) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity).order(ByteOrder.nativeOrder());
+        } else {
+            ByteBuffer grown = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+            grown.put(buffer.duplicate().clear());
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.memory.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import labs.pm.data.Rateable;
+import labs.pm.data.Rating;
+import labs.pm.data.Review;
+
+/**
+ * {@code ReviewNode} is one review in an immutable linked list of reviews,
+ * newest first. Each node also holds the number of reviews and the sum of
+ * their ratings up to and including itself, so the average rating is known
+ * without walking the list.
+ *
+ * @author redhat
+ */
+final class ReviewNode {
+
+    final Review review;
+    final ReviewNode next;
+    final int count;
+    final long ratingSum;
+
+    ReviewNode(Review review, ReviewNode next) {
+        this.review = review;
+        this.next = next;
+        count = next == null ? 1 : next.count + 1;
+        ratingSum = (next == null ? 0 : next.ratingSum) + review.getRating().ordinal();
+    }
+
+    Rating getAverage() {
+        return Rateable.convert((int) Math.round((double) ratingSum / count));
+    }
+
+    /**
+     * Copies the reviews of a list, oldest first.
+     *
+     * @param head the newest review, or null if there are no reviews
+     * @return a new list of the reviews
+     */
+    static List<Review> toList(ReviewNode head) {
+        List<Review> list = new ArrayList<>(head == null ? 0 : head.count);
+        for (ReviewNode node = head; node != null; node = node.next) {
+            list.add(node.review);
+        }
+        Collections.reverse(list);
+        return list;
+    }
+}
@@ -17,6 +17,7 @@
 package labs.pm.data;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
 
 /**
@@ -25,19 +26,49 @@ import java.time.LocalTime;
  */
 public final class Drink extends Product {
 
+    private static final long serialVersionUID = 1L;
+    private static final LocalTime HAPPY_HOUR_START = LocalTime.of(17, 30);
+    private static final LocalTime HAPPY_HOUR_END = LocalTime.of(18, 30);
+
     public Drink(int id, String name, BigDecimal price, Rating rating) {
         super(id, name, price, rating);
     }
 
+    Drink(int id, String name, long priceCents, Rating rating) {
+        super(id, name, priceCents, rating);
+    }
+
+    @Override
+    public long getDiscountCents() {
+        return isHappyHour() ? super.getDiscountCents() : 0;
+    }
+
+    /**
+     * Tells if drinks are discounted now
+     *
+     * @return true during happy hour
+     */
+    public static boolean isHappyHour() {
+        // TimeSource keeps whole minutes, so happy hour runs from the start minute up to the end minute
+        LocalTime now = TimeSource.getInstance().currentMinute();
+        return !now.isBefore(HAPPY_HOUR_START) && now.isBefore(HAPPY_HOUR_END);
+    }
+
     @Override
-    public BigDecimal getDiscount() {
-        LocalTime now = LocalTime.now();
-        return (now.isAfter(LocalTime.of(17, 30)) && now.isBefore(LocalTime.of(18, 30))) ? super.getDiscount() : BigDecimal.ZERO;
+    public LocalDateTime getNextDiscountChange(LocalDateTime now) {
+        LocalTime time = now.toLocalTime();
+        if (time.isBefore(HAPPY_HOUR_START)) {
+            return now.with(HAPPY_HOUR_START);
+        }
+        if (time.isBefore(HAPPY_HOUR_END)) {
+            return now.with(HAPPY_HOUR_END);
+        }
+        return now.toLocalDate().plusDays(1).atTime(HAPPY_HOUR_START);
     }
 
     @Override
     public Product applyRating(Rating newRating) {
-        return new Drink(getId(), getName(), getPrice(), newRating);
+        return new Drink(getId(), getName(), getPriceCents(), newRating);
 
     }
 
@@ -18,6 +18,7 @@ package labs.pm.data;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 
 /**
  *
@@ -25,6 +26,7 @@ import java.time.LocalDate;
  */
 public final class Food extends Product {
 
+    private static final long serialVersionUID = 1L;
     private LocalDate bestBefore;
 
     public Food(int id, String name, BigDecimal price, Rating rating, LocalDate bestBefore) {
@@ -32,6 +34,11 @@ public final class Food extends Product {
         this.bestBefore = bestBefore;
     }
 
+    Food(int id, String name, long priceCents, Rating rating, LocalDate bestBefore) {
+        super(id, name, priceCents, rating);
+        this.bestBefore = bestBefore;
+    }
+
     /**
      * Get the value of best before date for the product
      *
@@ -43,8 +50,20 @@ public final class Food extends Product {
     }
 
     @Override
-    public BigDecimal getDiscount() {
-        return (bestBefore.isEqual(LocalDate.now())) ? super.getDiscount() : BigDecimal.ZERO;
+    public long getDiscountCents() {
+        return (bestBefore.isEqual(TimeSource.getInstance().today())) ? super.getDiscountCents() : 0;
+    }
+
+    @Override
+    public LocalDateTime getNextDiscountChange(LocalDateTime now) {
+        LocalDate today = now.toLocalDate();
+        if (today.isBefore(bestBefore)) {
+            return bestBefore.atStartOfDay();
+        }
+        if (today.isEqual(bestBefore)) {
+            return bestBefore.plusDays(1).atStartOfDay();
+        }
+        return LocalDateTime.MAX;
     }
 
 //    @Override
@@ -53,7 +72,7 @@ public final class Food extends Product {
 //    } 
     @Override
     public Product applyRating(Rating newRating) {
-        return new Food(getId(), getName(), getPrice(), newRating, bestBefore);
+        return new Food(getId(), getName(), getPriceCents(), newRating, bestBefore);
 
     }
 
@@ -20,6 +20,7 @@ import java.io.Serializable;
 import java.math.BigDecimal;
 import static java.math.RoundingMode.HALF_UP;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import static labs.pm.data.Rating.*;
 
 /**
@@ -30,6 +31,9 @@ import static labs.pm.data.Rating.*;
  * <br>
  * Each product can have a discount, calculated based on a
  * {@link DISCOUNT_RATE discount rate}
+ * <br>
+ * Prices are kept in whole cents. A price with fractions of a cent is
+ * rounded half up to whole cents.
  *
  * @version 4.0
  * @author redhat
@@ -43,9 +47,14 @@ public abstract class Product implements Rateable<Product>, Serializable {
      * Discount rate is 10%
      */
     public static final BigDecimal DISCOUNT_RATE = BigDecimal.valueOf(0.1);
+    /**
+     * The price is serialized in cents since version 4.0.
+     */
+    private static final long serialVersionUID = 1L;
+    private static final long DISCOUNT_PERCENTAGE = DISCOUNT_RATE.movePointRight(2).longValueExact();
     private int id;
     private String name;
-    private BigDecimal price;
+    private long priceCents;
     private Rating rating;
 
 //    Product() {
@@ -55,10 +64,18 @@ public abstract class Product implements Rateable<Product>, Serializable {
         this(id, name, price, NOT_RATED);
     }
 
+    /**
+     * @throws ArithmeticException if the price does not fit in a
+     * {@code long} number of cents
+     */
     Product(int id, String name, BigDecimal price, Rating rating) {
+        this(id, name, price.setScale(2, HALF_UP).unscaledValue().longValueExact(), rating);
+    }
+
+    Product(int id, String name, long priceCents, Rating rating) {
         this.id = id;
         this.name = name;
-        this.price = price;
+        this.priceCents = priceCents;
         this.rating = rating;
     }
 
@@ -70,8 +87,23 @@ public abstract class Product implements Rateable<Product>, Serializable {
         return name;
     }
 
+    /**
+     * Get the price
+     *
+     * @return a {@link java.math.BigDecimal BigDecimal} value of the price
+     * with a scale of 2
+     */
     public BigDecimal getPrice() {
-        return price;
+        return BigDecimal.valueOf(priceCents, 2);
+    }
+
+    /**
+     * Get the price in cents
+     *
+     * @return the price times 100
+     */
+    public long getPriceCents() {
+        return priceCents;
     }
 
     /**
@@ -81,7 +113,44 @@ public abstract class Product implements Rateable<Product>, Serializable {
      * @return a {@link java.math.BigDecimal BigDecimal} value of the discount
      */
     public BigDecimal getDiscount() {
-        return price.multiply(DISCOUNT_RATE).setScale(2, HALF_UP);
+        return BigDecimal.valueOf(getDiscountCents(), 2);
+    }
+
+    /**
+     * Calculates discount in cents based on a product price and
+     * {@link DISCOUNT_RATE discount rate}, rounded half up
+     * <br>
+     * Sums of discounts in cents are exact and do not create any objects.
+     *
+     * @return the discount times 100
+     */
+    public long getDiscountCents() {
+        return discountCents(priceCents);
+    }
+
+    /**
+     * Calculates the full discount in cents of a price in cents, as
+     * {@link #getDiscountCents() getDiscountCents} does when the discount
+     * applies, for catalogues that keep prices without creating products
+     *
+     * @param priceCents the price times 100
+     * @return the discount times 100
+     */
+    public static long discountCents(long priceCents) {
+        long discount = (Math.abs(priceCents) * DISCOUNT_PERCENTAGE + 50) / 100;
+        return priceCents < 0 ? -discount : discount;
+    }
+
+    /**
+     * Get the first moment after {@code now} at which the value of
+     * {@link #getDiscount() getDiscount} may change
+     *
+     * @param now the current date and time
+     * @return the next change, or {@code LocalDateTime.MAX} if the discount
+     * does not depend on time
+     */
+    public LocalDateTime getNextDiscountChange(LocalDateTime now) {
+        return LocalDateTime.MAX;
     }
 
     @Override
@@ -99,7 +168,7 @@ public abstract class Product implements Rateable<Product>, Serializable {
      * @return the value of bestBefore
      */
     public LocalDate getBestBefore() {
-        return LocalDate.now();
+        return TimeSource.getInstance().today();
     }
 
     @Override
@@ -108,7 +177,7 @@ public abstract class Product implements Rateable<Product>, Serializable {
         sb.append(getClass().getSimpleName());
         sb.append(", ").append(id);
         sb.append(", ").append(name);
-        sb.append(", ").append(price);
+        sb.append(", ").append(getPrice());
         sb.append(", ").append(getDiscount());
         sb.append(", ").append(rating.getStars());
         sb.append(", ").append(getBestBefore());
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * {@code TimeSource} provides the current date and time to all products, for
+ * example to decide if a discount applies.
+ * <br>
+ * The time is kept per minute: the date and time objects are created once a
+ * minute and shared, so a product only reads the milliseconds of the clock.
+ * <br>
+ * The clock can be replaced, for instance by a fixed clock to make time
+ * dependent discounts predictable.
+ *
+ * @author redhat
+ */
+public final class TimeSource {
+
+    private static volatile TimeSource instance = new TimeSource(Clock.systemDefaultZone());
+
+    private final Clock clock;
+    private volatile Tick tick;
+
+    /**
+     * The current minute, valid from {@code start} up to {@code end}
+     * milliseconds since the epoch.
+     */
+    private static class Tick {
+
+        private final long start;
+        private final long end;
+        private final LocalDateTime dateTime;
+
+        private Tick(Clock clock, long millis) {
+            ZonedDateTime minute = Instant.ofEpochMilli(millis).atZone(clock.getZone()).truncatedTo(ChronoUnit.MINUTES);
+            start = minute.toInstant().toEpochMilli();
+            end = minute.plusMinutes(1).toInstant().toEpochMilli();
+            dateTime = minute.toLocalDateTime();
+        }
+    }
+
+    private TimeSource(Clock clock) {
+        this.clock = clock;
+    }
+
+    public static TimeSource getInstance() {
+        return instance;
+    }
+
+    /**
+     * Replaces the clock used by all products.
+     *
+     * @param clock the new clock
+     */
+    public static void setClock(Clock clock) {
+        instance = new TimeSource(clock);
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Get the current date
+     *
+     * @return the date of today
+     */
+    public LocalDate today() {
+        return tick().dateTime.toLocalDate();
+    }
+
+    /**
+     * Get the current time, truncated to minutes
+     *
+     * @return the current minute
+     */
+    public LocalTime currentMinute() {
+        return tick().dateTime.toLocalTime();
+    }
+
+    /**
+     * Get the current date and time, truncated to minutes
+     *
+     * @return the current minute of today
+     */
+    public LocalDateTime currentDateTime() {
+        return tick().dateTime;
+    }
+
+    private Tick tick() {
+        Tick current = tick;
+        long millis = clock.millis();
+        if (current == null || millis < current.start || millis >= current.end) {
+            current = new Tick(clock, millis);
+            tick = current;
+        }
+        return current;
+    }
+}
@@ -18,8 +18,10 @@ package labs.pm.service;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.ServiceLoader;
 import java.util.function.Predicate;
 import labs.pm.data.Product;
 import labs.pm.data.Rating;
@@ -41,7 +43,75 @@ public interface ProductManager {
 
     List<Product> findProducts(Predicate<Product> filter) throws ProductManagerException;
 
+    /**
+     * Finds the products that match a query. Providers that keep indexes
+     * should override this method, by default it tests the query on all
+     * products.
+     *
+     * @param query the conditions the products have to meet
+     * @return the matching products
+     * @throws ProductManagerException if the products cannot be read
+     */
+    default List<Product> findProducts(ProductQuery query) throws ProductManagerException {
+        return findProducts(query::matches);
+    }
+
+    /**
+     * Lists one page of the products that pass a filter, in sort order.
+     *
+     * @param filter the products to list
+     * @param sorter the sort order
+     * @param offset the number of products before the page
+     * @param limit the maximum number of products on the page
+     * @return the page
+     * @throws ProductManagerException if the products cannot be read
+     */
+    default ProductPage listProducts(Predicate<Product> filter, Comparator<? super Product> sorter, int offset, int limit) throws ProductManagerException {
+        return ProductPage.select(findProducts(filter), sorter, offset, limit);
+    }
+
+    /**
+     * Lists one page of the products that match a query, in sort order.
+     *
+     * @param query the products to list
+     * @param sorter the sort order
+     * @param offset the number of products before the page
+     * @param limit the maximum number of products on the page
+     * @return the page
+     * @throws ProductManagerException if the products cannot be read
+     */
+    default ProductPage listProducts(ProductQuery query, Comparator<? super Product> sorter, int offset, int limit) throws ProductManagerException {
+        return ProductPage.select(findProducts(query), sorter, offset, limit);
+    }
+
     List<Review> findReviews(int id) throws ProductManagerException;
 
     Map<Rating, BigDecimal> getDiscounts() throws ProductManagerException;
+
+    /**
+     * Returns counters that show how the provider is doing, such as cache
+     * hits and misses. By default there are none.
+     *
+     * @return the counters by name
+     */
+    default Map<String, Long> getStatistics() {
+        return Map.of();
+    }
+
+    /**
+     * Loads a {@code ProductManager} provider through the
+     * {@link ServiceLoader}.
+     *
+     * @param type the simple or fully qualified class name of the provider
+     * @return a new instance of the provider
+     * @throws ProductManagerException if there is no such provider
+     */
+    static ProductManager getInstance(String type) throws ProductManagerException {
+        return ServiceLoader.load(ProductManager.class)
+                .stream()
+                .filter(provider -> provider.type().getSimpleName().equals(type) || provider.type().getName().equals(type))
+                .findFirst()
+                .orElseThrow(() -> new ProductManagerException("ProductManager provider " + type + " not found"))
+                .get();
+    }
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.service;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.RandomAccess;
+import java.util.function.Function;
+import labs.pm.data.Product;
+
+/**
+ * {@code ProductPage} is one page of a sorted product listing, as returned
+ * by {@link ProductManager#listProducts(java.util.function.Predicate, Comparator, int, int)
+ * listProducts}.
+ * <br>
+ * The page holds only its own products, in order, and the total number of
+ * products in the listing. Products are formatted when the page is read, see
+ * {@link #format(Function) format}.
+ *
+ * @author redhat
+ */
+public class ProductPage extends AbstractList<Product> implements RandomAccess {
+
+    private final List<Product> products;
+    private final int offset;
+    private final int total;
+
+    private ProductPage(List<Product> products, int offset, int total) {
+        this.products = products;
+        this.offset = offset;
+        this.total = total;
+    }
+
+    /**
+     * Selects a page of products in sort order.
+     * <br>
+     * Products that are equal for the comparator are ordered by id, so pages
+     * do not overlap. For the first pages of a large listing only the
+     * {@code offset + limit} first products are kept in a heap, which costs
+     * O(n log(offset + limit)) instead of sorting all products.
+     *
+     * @param products the products of the listing, in any order
+     * @param sorter the sort order
+     * @param offset the number of products before this page
+     * @param limit the maximum number of products on this page
+     * @return the page
+     */
+    public static ProductPage select(Collection<Product> products, Comparator<? super Product> sorter, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Invalid page offset " + offset + " or limit " + limit);
+        }
+        Comparator<Product> order = ((Comparator<Product>) sorter::compare).thenComparingInt(Product::getId);
+        int total = products.size();
+        int end = (int) Math.min((long) offset + limit, total);
+        if (offset >= end) {
+            return new ProductPage(List.of(), offset, total);
+        }
+        List<Product> sorted;
+        if (end < total / 2) {
+            // Keep the first products in a heap with the last of them on top.
+            PriorityQueue<Product> first = new PriorityQueue<>(end + 1, order.reversed());
+            for (Product product : products) {
+                if (first.size() < end) {
+                    first.add(product);
+                } else if (order.compare(product, first.peek()) < 0) {
+                    first.poll();
+                    first.add(product);
+                }
+            }
+            sorted = new ArrayList<>(first);
+        } else {
+            sorted = new ArrayList<>(products);
+        }
+        sorted.sort(order);
+        return new ProductPage(List.copyOf(sorted.subList(offset, end)), offset, total);
+    }
+
+    @Override
+    public Product get(int index) {
+        return products.get(index);
+    }
+
+    @Override
+    public int size() {
+        return products.size();
+    }
+
+    /**
+     * @return the number of products before this page
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the number of products in the whole listing
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return true if there are products after this page
+     */
+    public boolean hasNext() {
+        return offset + products.size() < total;
+    }
+
+    /**
+     * Gets a view of this page with each product formatted as text. A
+     * product is formatted each time its line is read, so lines that are
+     * never shown are never formatted.
+     *
+     * @param formatter formats one product
+     * @return the formatted products
+     */
+    public List<String> format(Function<? super Product, String> formatter) {
+        return new FormattedPage(formatter);
+    }
+
+    private class FormattedPage extends AbstractList<String> implements RandomAccess {
+
+        private final Function<? super Product, String> formatter;
+
+        private FormattedPage(Function<? super Product, String> formatter) {
+            this.formatter = formatter;
+        }
+
+        @Override
+        public String get(int index) {
+            return formatter.apply(products.get(index));
+        }
+
+        @Override
+        public int size() {
+            return products.size();
+        }
+    }
+}
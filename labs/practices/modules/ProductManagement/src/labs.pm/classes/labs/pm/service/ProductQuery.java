@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Predicate;
+import labs.pm.data.Product;
+import labs.pm.data.Rating;
+
+/**
+ * {@code ProductQuery} describes which products to find with
+ * {@link ProductManager#findProducts(ProductQuery) findProducts}.
+ * <br>
+ * A query combines conditions on price, rating, best before date and product
+ * type, which a {@code ProductManager} can answer from an index, with an
+ * optional filter that can only be tested product by product. A product
+ * matches if it meets all conditions that are set.
+ * <br>
+ * For example, all drinks with a price below 2:
+ * <pre>
+ * new ProductQuery().type(Drink.class).priceBelow(BigDecimal.valueOf(2))
+ * </pre>
+ *
+ * @author redhat
+ */
+public class ProductQuery {
+
+    private Long minPriceCents;
+    private Long maxPriceCents;
+    private Set<Rating> ratings;
+    private LocalDate bestBeforeFrom;
+    private LocalDate bestBeforeTo;
+    private Class<? extends Product> type;
+    private Predicate<Product> filter;
+
+    /**
+     * Creates a query that matches all products.
+     */
+    public ProductQuery() {
+    }
+
+    /**
+     * Only products with a price of at least {@code price}.
+     *
+     * @param price the lowest price
+     * @return this query
+     */
+    public ProductQuery priceFrom(BigDecimal price) {
+        minPriceCents = toCents(price);
+        return this;
+    }
+
+    /**
+     * Only products with a price below {@code price}.
+     *
+     * @param price the price all products are cheaper than
+     * @return this query
+     */
+    public ProductQuery priceBelow(BigDecimal price) {
+        maxPriceCents = toCents(price);
+        return this;
+    }
+
+    /**
+     * Only products with one of the given ratings.
+     *
+     * @param first a rating
+     * @param others more ratings
+     * @return this query
+     */
+    public ProductQuery rating(Rating first, Rating... others) {
+        ratings = EnumSet.of(first, others);
+        return this;
+    }
+
+    /**
+     * Only products with a best before date from {@code from} up to and
+     * including {@code to}.
+     *
+     * @param from the first date, or null for no lower bound
+     * @param to the last date, or null for no upper bound
+     * @return this query
+     */
+    public ProductQuery bestBefore(LocalDate from, LocalDate to) {
+        bestBeforeFrom = from;
+        bestBeforeTo = to;
+        return this;
+    }
+
+    /**
+     * Only products of a type, such as {@code Drink} or {@code Food}.
+     *
+     * @param type the product class
+     * @return this query
+     */
+    public ProductQuery type(Class<? extends Product> type) {
+        this.type = type;
+        return this;
+    }
+
+    /**
+     * Only products that pass a filter. The filter is tested after all other
+     * conditions.
+     *
+     * @param filter the filter
+     * @return this query
+     */
+    public ProductQuery filter(Predicate<Product> filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * @return the lowest price in cents, or null
+     */
+    public Long getMinPriceCents() {
+        return minPriceCents;
+    }
+
+    /**
+     * @return the price in cents all products are cheaper than, or null
+     */
+    public Long getMaxPriceCents() {
+        return maxPriceCents;
+    }
+
+    /**
+     * @return the ratings, or null for all ratings
+     */
+    public Set<Rating> getRatings() {
+        return ratings;
+    }
+
+    public LocalDate getBestBeforeFrom() {
+        return bestBeforeFrom;
+    }
+
+    public LocalDate getBestBeforeTo() {
+        return bestBeforeTo;
+    }
+
+    public Class<? extends Product> getType() {
+        return type;
+    }
+
+    public Predicate<Product> getFilter() {
+        return filter;
+    }
+
+    /**
+     * Tests all conditions of this query on one product.
+     *
+     * @param product the product
+     * @return true if the product matches the query
+     */
+    public boolean matches(Product product) {
+        if (minPriceCents != null && product.getPriceCents() < minPriceCents) {
+            return false;
+        }
+        if (maxPriceCents != null && product.getPriceCents() >= maxPriceCents) {
+            return false;
+        }
+        if (ratings != null && !ratings.contains(product.getRating())) {
+            return false;
+        }
+        if (type != null && !type.isInstance(product)) {
+            return false;
+        }
+        if (bestBeforeFrom != null || bestBeforeTo != null) {
+            LocalDate bestBefore = product.getBestBefore();
+            if ((bestBeforeFrom != null && bestBefore.isBefore(bestBeforeFrom))
+                    || (bestBeforeTo != null && bestBefore.isAfter(bestBeforeTo))) {
+                return false;
+            }
+        }
+        return filter == null || filter.test(product);
+    }
+
+    /**
+     * Converts a price bound to cents. Prices are whole cents, so a bound
+     * with a fraction of a cent is rounded up: a price is at least 1.995
+     * exactly when it is at least 2.00.
+     */
+    private static long toCents(BigDecimal price) {
+        return price.setScale(2, RoundingMode.CEILING).unscaledValue().longValueExact();
+    }
+}
@@ -18,4 +18,5 @@
 module labs.pm {
     exports labs.pm.service;
     exports labs.pm.data;
+    uses labs.pm.service.ProductManager;
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2021 redhat
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that prices are kept in whole cents, rounding fractions of a cent
+ * half up, that products keep their price when serialized, and that
+ * discounts follow the price and the time.
+ *
+ * @author redhat
+ */
+public class ProductTest {
+
+    @Test
+    public void roundsSubCentPrices() {
+        assertEquals(new BigDecimal("1.01"), new Drink(101, "Tea", new BigDecimal("1.005"), Rating.NOT_RATED).getPrice());
+        assertEquals(100, new Drink(101, "Tea", new BigDecimal("1.0049"), Rating.NOT_RATED).getPriceCents());
+        assertEquals(new BigDecimal("-0.01"), new Drink(101, "Tea", new BigDecimal("-0.005"), Rating.NOT_RATED).getPrice());
+        assertEquals(new BigDecimal("3.00"), new Food(102, "Cake", new BigDecimal("3"), Rating.NOT_RATED, LocalDate.now()).getPrice());
+    }
+
+    @Test
+    public void serializesThePrice() throws IOException, ClassNotFoundException {
+        Product product = new Food(102, "Cake", new BigDecimal("3.99"), Rating.FOUR_STAR, LocalDate.of(2022, 2, 28));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(product);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Product copy = (Product) in.readObject();
+            assertEquals(product.toString(), copy.toString());
+            assertEquals(399, copy.getPriceCents());
+        }
+    }
+
+    @After
+    public void resetClock() {
+        TimeSource.setClock(Clock.systemDefaultZone());
+    }
+
+    private static void setTime(int hour, int minute) {
+        TimeSource.setClock(Clock.fixed(LocalDate.of(2022, 2, 28).atTime(hour, minute).toInstant(ZoneOffset.UTC), ZoneOffset.UTC));
+    }
+
+    @Test
+    public void discountsDrinksAtHappyHour() {
+        Product tea = new Drink(101, "Tea", new BigDecimal("1.95"), Rating.NOT_RATED);
+        setTime(17, 29);
+        assertFalse(Drink.isHappyHour());
+        assertEquals(0, tea.getDiscountCents());
+        setTime(17, 30);
+        assertTrue(Drink.isHappyHour());
+        assertEquals(20, tea.getDiscountCents());
+        assertEquals(Product.discountCents(tea.getPriceCents()), tea.getDiscountCents());
+        assertEquals(-20, Product.discountCents(-195));
+        setTime(18, 30);
+        assertFalse(Drink.isHappyHour());
+    }
+}
@@ -1,6 +1,12 @@
 #!/bin/bash
-#products
-for i in $(seq 101 164); do P=("F" "D") && N=("ICECREAM" "SHAKE") && echo "${P[0+$RANDOM%2]},$i,${N[0+$RANDOM%2]}_$i,$((1+$RANDOM%10)).99,$((1+$RANDOM%5)),2022-01-01" > product$i.csv; done
-#reviews
-for i in $(seq 101 164); do for n in $(seq 1 $((1+$RANDOM%5))); do LIST=("Not Bad" "Ok" "Hot" "Good" "Fizzy") &&  echo "$((1+$RANDOM%5)), ${LIST[0+$RANDOM%5]}" >> reviews$i.csv; done; done
-
+#Generates product and review files in the current folder with labs.bench.DataGenerator,
+#by default products 101 to 164 with 1 to 5 reviews each. Other generate.* properties can be passed
+#as arguments, e.g. ./generate-data.sh -Dgenerate.products=1000000 -Dgenerate.reviews=geometric:3
+#The modules are taken from the build of the ProductManagement project, or from $MODULES.
+MODULES=${MODULES:-$(dirname "$0")/../practices/modules/ProductManagement/build/modules}
+if [ ! -d "$MODULES/labs.bench" ]; then
+    echo "No labs.bench module in $MODULES." >&2
+    echo "Build the ProductManagement project first, or set MODULES to the folder with the compiled modules." >&2
+    exit 1
+fi
+java -p "$MODULES" -Dgenerate.folder=. -Dgenerate.products=64 "$@" -m labs.bench/labs.bench.DataGenerator